@@ -0,0 +1,65 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.AdmissionController;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Four operations on 16 resources in random order, every thread added
+ * adds waits and deadlocks. Letting in only as many transactions as
+ * keep committing should hold the commits up as threads are added,
+ * at the cost of the latency of a start, compare the two controllers.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AdmissionBenchmark extends WorkloadBenchmark {
+
+	@Param({ "unlimited", "adaptive" })
+	public String admission;
+
+	@Override
+	int resourceCount() {
+		return 16;
+	}
+
+	@Override
+	int operations() {
+		return 4;
+	}
+
+	@Override
+	int pick(ThreadLocalRandom random, int thread, int threads, int resourceCount) {
+		return random.nextInt(resourceCount);
+	}
+
+	@Override
+	TransactionManager newManager(List<Resource> resources) {
+		return TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+						.admission(admission.equals("unlimited") ?
+								AdmissionController.unlimited() :
+								AdmissionController.adaptive(1, 64))
+		);
+	}
+
+}
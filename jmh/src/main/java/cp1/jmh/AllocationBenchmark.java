@@ -0,0 +1,88 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Transactions of a single thread on 64 resources, every other one
+ * committed and the rest rolled back. Run with -prof gc, the difference
+ * of gc.alloc.rate.norm between one- and four-operation transactions
+ * is what every further operation of a short transaction costs.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+	@Param({ "1", "4" })
+	public int operations;
+
+	private TransactionManager tm;
+	private ResourceId[] ids;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(64);
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(resources, new Fixtures.LocalTimeProviderImpl());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void transaction() throws Exception {
+		int i = next++;
+
+		tm.startTransaction();
+
+		for (int op = 0; op < operations; ++op)
+			tm.operateOnResourceInCurrentTransaction(
+					ids[(i + op) % ids.length],
+					Fixtures.ResourceOpImpl.get()
+			);
+
+		if (i % 2 == 0)
+			tm.commitCurrentTransaction();
+		else
+			tm.rollbackCurrentTransaction();
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.AsyncTransactionHandle;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.solution.AsyncMT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * 200000 transactions of 2 operations on 1000 resources, 10000 of
+ * them in flight at once, driven by 4 threads through the asynchronous
+ * manager. With a durable manager, a commit is counted once it is on
+ * the disk.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class AsyncBenchmark {
+
+	private static final int TRANSACTIONS = 200_000;
+	private static final int IN_FLIGHT = 10_000;
+
+	@Param({ "false", "true" })
+	public boolean durable;
+
+	private Path logPath;
+	private ExecutorService executor;
+	private AsyncMT tm;
+	private ResourceId[] ids;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Outcomes {
+
+		public long commits;
+		public long aborts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			commits = 0;
+			aborts = 0;
+		}
+
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		List<Resource> resources = Fixtures.newResources(1_000);
+
+		ids = Fixtures.idsOf(resources);
+		logPath = Files.createTempFile("benchmarks", ".log");
+		executor = Executors.newFixedThreadPool(4);
+		tm = durable ?
+				TransactionManagerFactory.newDurableAsyncTM(
+						resources,
+						new Fixtures.LocalTimeProviderImpl(),
+						logPath,
+						new Fixtures.OperationCodecImpl(),
+						executor
+				) :
+				TransactionManagerFactory.newAsyncTM(
+						resources,
+						new Fixtures.LocalTimeProviderImpl(),
+						executor
+				);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+		executor.shutdown();
+		Files.delete(logPath);
+	}
+
+	@Benchmark
+	public void transactions(Outcomes outcomes) throws InterruptedException {
+		AtomicLong committed = new AtomicLong();
+		AtomicLong aborted = new AtomicLong();
+		Semaphore slots = new Semaphore(IN_FLIGHT);
+		CountDownLatch done = new CountDownLatch(TRANSACTIONS);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (int i = 0; i < TRANSACTIONS; ++i) {
+			ResourceId first = ids[random.nextInt(ids.length)];
+			ResourceId second = ids[random.nextInt(ids.length)];
+
+			slots.acquire();
+			AsyncTransactionHandle h = tm.startTransaction();
+
+			h.operateOnResource(first, Fixtures.ResourceOpImpl.get())
+					.thenCompose(v -> h.operateOnResource(second, Fixtures.ResourceOpImpl.get()))
+					.thenCompose(v -> h.commit())
+					.whenComplete((v, e) -> {
+						if (e == null) {
+							committed.incrementAndGet();
+						}
+						else {
+							aborted.incrementAndGet();
+							h.rollback();
+						}
+						slots.release();
+						done.countDown();
+					});
+		}
+
+		done.await();
+
+		outcomes.commits += committed.get();
+		outcomes.aborts += aborted.get();
+	}
+
+}
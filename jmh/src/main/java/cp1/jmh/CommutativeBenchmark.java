@@ -0,0 +1,123 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Four operations on 8 hot counters in random order, as exclusive
+ * increments, as commutative ones and as commutative increments and
+ * decrements of counters which must not drop below zero. Operations
+ * failing at the escrow bounds are skipped.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class CommutativeBenchmark {
+
+	@Param({ "exclusive", "commutative", "escrow" })
+	public String kind;
+
+	private TransactionManager tm;
+	private ResourceId[] ids;
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = new ArrayList<Resource>();
+
+		for (int i = 0; i < 8; ++i) {
+			Fixtures.ResourceIdImpl id = new Fixtures.ResourceIdImpl(i);
+
+			if (kind.equals("escrow"))
+				resources.add(new Fixtures.BoundedResourceImpl(id, 100));
+			else
+				resources.add(new Fixtures.ResourceImpl(id));
+		}
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(resources, new Fixtures.LocalTimeProviderImpl());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	private ResourceOperation nextOperation(ThreadLocalRandom random) {
+		switch (kind) {
+		case "commutative":
+			return Fixtures.ResourceAddOpImpl.increment();
+		case "escrow":
+			return random.nextBoolean() ?
+					Fixtures.ResourceAddOpImpl.increment() :
+					Fixtures.ResourceAddOpImpl.decrement();
+		default:
+			return Fixtures.ResourceOpImpl.get();
+		}
+	}
+
+	@Benchmark
+	public void transaction(Outcomes outcomes) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		try {
+			tm.startTransaction();
+
+			for (int i = 0; i < 4; ++i) {
+				try {
+					tm.operateOnResourceInCurrentTransaction(
+							ids[random.nextInt(ids.length)],
+							nextOperation(random)
+					);
+				} catch (ResourceOperationException e) {
+					// Out of the escrow bounds
+				}
+			}
+
+			tm.commitCurrentTransaction();
+			++outcomes.commits;
+		} catch (ActiveTransactionAborted e) {
+			++outcomes.aborts;
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * The workload under growing contention:
+ * uncontended - every thread sticks to its own slice of 100000 resources,
+ * low-contention - uniformly random resources out of 100000,
+ * hot-spot - four out of five operations go to the same 8 out of 10000,
+ * deadlock-prone - two operations on 8 resources in random order, so
+ * most acquisitions block and many end up in deadlocks.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class ContentionBenchmark extends WorkloadBenchmark {
+
+	@Param({ "uncontended", "low-contention", "hot-spot", "deadlock-prone" })
+	public String pattern;
+
+	@Override
+	int resourceCount() {
+		switch (pattern) {
+		case "hot-spot":
+			return 10_000;
+		case "deadlock-prone":
+			return 8;
+		default:
+			return 100_000;
+		}
+	}
+
+	@Override
+	int operations() {
+		return pattern.equals("deadlock-prone") ? 2 : 4;
+	}
+
+	@Override
+	int pick(ThreadLocalRandom random, int thread, int threads, int resourceCount) {
+		switch (pattern) {
+		case "uncontended":
+			int slice = resourceCount / threads;
+			return thread * slice + random.nextInt(slice);
+		case "hot-spot":
+			if (random.nextInt(5) != 0)
+				return random.nextInt(8);
+			else
+				return random.nextInt(resourceCount);
+		default:
+			return random.nextInt(resourceCount);
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.DetachedSupport;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionHandle;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * 100000 transactions in flight at once, driven through handles, each
+ * on its own resource out of a million. Each one pauses for 10 ms
+ * between its operation and its commit, so with virtual threads all
+ * of them hold their resources concurrently. With platform threads only
+ * as many as the pool has threads are in flight at a time.
+ *
+ * The kind of threads is a parameter, so that the two are reported
+ * apart. Virtual threads need a JDK which has them, on an older one
+ * the virtual runs fail and only the platform ones report results
+ * (-p threads=platform runs those alone).
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+// A million resources and the transactions in flight do not fit
+// in the default heap of a small machine
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Threads(1)
+@State(Scope.Thread)
+public class DetachedBenchmark {
+
+	private static final int TRANSACTIONS = 100_000;
+
+	@Param({"virtual", "platform"})
+	public String threads;
+
+	// Of the platform threads
+	@Param("256")
+	public int poolSize;
+
+	private DetachedSupport tm;
+	private ResourceId[] ids;
+	private ExecutorService executor;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Outcomes {
+
+		public long commits;
+		public long aborts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			commits = 0;
+			aborts = 0;
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(1_000_000);
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+		);
+
+		if (threads.equals("platform")) {
+			executor = Executors.newFixedThreadPool(poolSize);
+		}
+		else {
+			executor = newVirtualThreadExecutor();
+
+			if (executor == null)
+				throw new IllegalStateException("This JDK has no virtual threads, run with -p threads=platform");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		executor.shutdown();
+		tm.close();
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor, when running on a JDK
+	// that has it, null otherwise
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService)Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	@Benchmark
+	public void transactions(Outcomes outcomes) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(TRANSACTIONS);
+		AtomicLong committed = new AtomicLong();
+		AtomicLong aborted = new AtomicLong();
+
+		for (int i = 0; i < TRANSACTIONS; ++i) {
+			ResourceId rid = ids[i * (ids.length / TRANSACTIONS)];
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					TransactionHandle h = tm.startDetachedTransaction();
+
+					try {
+						h.operateOnResource(rid, Fixtures.ResourceOpImpl.get());
+						Thread.sleep(10);
+						h.commit();
+						committed.incrementAndGet();
+					} catch (ActiveTransactionAborted e) {
+						aborted.incrementAndGet();
+					} catch (Exception e) {
+						throw new AssertionError(e);
+					} finally {
+						h.rollback();
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		done.await();
+
+		outcomes.commits += committed.get();
+		outcomes.aborts += aborted.get();
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Single-operation transactions on 10000 resources logged to
+ * a temporary file. With group commit the rate should grow with
+ * the threads, far beyond one transaction per fsync.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class DurableBenchmark {
+
+	private Path logPath;
+	private MT tm;
+	private ResourceId[] ids;
+
+	@Setup
+	public void setUp() throws IOException {
+		List<Resource> resources = Fixtures.newResources(10_000);
+
+		ids = Fixtures.idsOf(resources);
+		logPath = Files.createTempFile("benchmarks", ".log");
+		tm = TransactionManagerFactory.newDurableTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl()),
+				logPath,
+				null,
+				new Fixtures.OperationCodecImpl()
+		);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+		Files.delete(logPath);
+	}
+
+	@Benchmark
+	public void transaction(Outcomes outcomes) throws Exception {
+		try {
+			Fixtures.runSingleOperation(tm, ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+			++outcomes.commits;
+		} catch (ActiveTransactionAborted e) {
+			++outcomes.aborts;
+		}
+	}
+
+}
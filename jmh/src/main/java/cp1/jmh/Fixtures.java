@@ -0,0 +1,253 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.LocalTimeProvider;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionManager;
+import cp1.base.UnknownResourceIdException;
+
+/**
+ * Resources, operations and helpers shared by the benchmarks.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	static List<Resource> newResources(int count) {
+		List<Resource> resources = new ArrayList<Resource>(count);
+
+		for (int i = 0; i < count; ++i)
+			resources.add(new ResourceImpl(new ResourceIdImpl(i)));
+
+		return resources;
+	}
+
+	static ResourceId[] idsOf(List<Resource> resources) {
+		ResourceId[] ids = new ResourceId[resources.size()];
+
+		for (int i = 0; i < ids.length; ++i)
+			ids[i] = resources.get(i).getId();
+
+		return ids;
+	}
+
+	static void runSingleOperation(
+			TransactionManager tm,
+			ResourceId rid
+	) throws
+		AnotherTransactionActiveException,
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException {
+
+		tm.startTransaction();
+		try {
+			tm.operateOnResourceInCurrentTransaction(rid, ResourceOpImpl.get());
+			tm.commitCurrentTransaction();
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+	// ---------------------------------------------------------
+	// -                                                       -
+	// -     Sample implementations of the base interfaces     -
+	// -                                                       -
+	// ---------------------------------------------------------
+
+	static final class LocalTimeProviderImpl implements LocalTimeProvider {
+		@Override
+		public long getTime() {
+			return System.currentTimeMillis();
+		}
+	}
+
+	static final class ResourceIdImpl implements ResourceId {
+		final int value;
+
+		ResourceIdImpl(int value) {
+			this.value = value;
+		}
+		@Override
+		public int compareTo(ResourceId other) {
+			return Integer.compare(this.value, ((ResourceIdImpl)other).value);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (! (obj instanceof ResourceIdImpl)) {
+				return false;
+			}
+			return this.value == ((ResourceIdImpl)obj).value;
+		}
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(this.value);
+		}
+		@Override
+		public String toString() {
+			return "R" + this.value;
+		}
+	}
+
+	static class ResourceImpl extends Resource {
+		private volatile long value = 0;
+		public ResourceImpl(ResourceId id) {
+			super(id);
+		}
+		public void addValue(long delta) {
+			this.value = this.value + delta;
+		}
+		public long getValue() {
+			return this.value;
+		}
+	}
+
+	static final class BoundedResourceImpl extends ResourceImpl {
+		public BoundedResourceImpl(ResourceId id, long initial) {
+			super(id);
+			addValue(initial);
+		}
+		@Override
+		public long getEscrowValue() {
+			return getValue();
+		}
+		@Override
+		public long getEscrowMin() {
+			return 0;
+		}
+	}
+
+	static final class VersionedResourceImpl extends ResourceImpl {
+		public VersionedResourceImpl(ResourceId id) {
+			super(id);
+		}
+		@Override
+		public Resource copyForSnapshot() {
+			ResourceImpl copy = new ResourceImpl(getId());
+			copy.addValue(getValue());
+			return copy;
+		}
+	}
+
+	// Only knows the operations of these benchmarks
+	static final class OperationCodecImpl implements OperationCodec {
+		@Override
+		public void writeResourceId(ResourceId rid, DataOutput out) throws IOException {
+			out.writeInt(((ResourceIdImpl)rid).value);
+		}
+		@Override
+		public ResourceId readResourceId(DataInput in) throws IOException {
+			return new ResourceIdImpl(in.readInt());
+		}
+		@Override
+		public void writeOperation(ResourceOperation operation, DataOutput out) {
+		}
+		@Override
+		public ResourceOperation readOperation(DataInput in) {
+			return ResourceOpImpl.get();
+		}
+	}
+
+	static final class ResourceOpImpl extends ResourceOperation {
+		private final static ResourceOpImpl singleton = new ResourceOpImpl();
+		public static ResourceOperation get() {
+			return singleton;
+		}
+		@Override
+		public void execute(Resource r) {
+			((ResourceImpl)r).addValue(1);
+		}
+		@Override
+		public void undo(Resource r) {
+			((ResourceImpl)r).addValue(-1);
+		}
+	}
+
+	static final class ResourceAddOpImpl extends ResourceOperation {
+		private final static ResourceAddOpImpl increment = new ResourceAddOpImpl(1);
+		private final static ResourceAddOpImpl decrement = new ResourceAddOpImpl(-1);
+		public static ResourceOperation increment() {
+			return increment;
+		}
+		public static ResourceOperation decrement() {
+			return decrement;
+		}
+		private final int delta;
+		private ResourceAddOpImpl(int delta) {
+			this.delta = delta;
+		}
+		@Override
+		public Object getCommutativityClass() {
+			return ResourceAddOpImpl.class;
+		}
+		@Override
+		public long getEscrowDelta() {
+			return delta;
+		}
+		@Override
+		public void execute(Resource r) {
+			((ResourceImpl)r).addValue(delta);
+		}
+		@Override
+		public void undo(Resource r) {
+			((ResourceImpl)r).addValue(-delta);
+		}
+	}
+
+	static final class ResourceFailingOpImpl extends ResourceOperation {
+		private final static ResourceFailingOpImpl singleton = new ResourceFailingOpImpl();
+		public static ResourceOperation get() {
+			return singleton;
+		}
+		@Override
+		public void execute(Resource r) throws ResourceOperationException {
+			throw new ResourceOperationException(r.getId(), this);
+		}
+		@Override
+		public void undo(Resource r) {
+		}
+	}
+
+	static final class ResourceReadOpImpl extends ResourceOperation {
+		private final static ResourceReadOpImpl singleton = new ResourceReadOpImpl();
+		public static ResourceOperation get() {
+			return singleton;
+		}
+		@Override
+		public void execute(Resource r) {
+			((ResourceImpl)r).getValue();
+		}
+		@Override
+		public void undo(Resource r) {
+		}
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.GroupLockSupport;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Bulk transactions writing all the 1000 members of one of 10 groups,
+ * locking them one by one, escalating to the group after 64 of them
+ * and locking the group up front. A single thread, so only the cost
+ * of locking is measured.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class GroupBenchmark {
+
+	private static final int GROUPS = 10;
+	private static final int MEMBERS = 1000;
+
+	@Param({ "per-resource", "escalated", "group" })
+	public String locking;
+
+	private GroupLockSupport tm;
+	private ResourceId[] ids;
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(GROUPS * MEMBERS);
+		MT.Builder builder = MT.builder(resources, new Fixtures.LocalTimeProviderImpl());
+
+		if (!locking.equals("per-resource")) {
+			Map<ResourceId, ResourceId> groups = new HashMap<ResourceId, ResourceId>();
+
+			for (int i = 0; i < resources.size(); ++i)
+				groups.put(resources.get(i).getId(), new Fixtures.ResourceIdImpl(-1 - i / MEMBERS));
+
+			builder.groups(groups, 64);
+		}
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(builder);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void transaction() throws Exception {
+		int group = ThreadLocalRandom.current().nextInt(GROUPS);
+
+		tm.startTransaction();
+
+		try {
+			if (locking.equals("group"))
+				tm.lockGroupInCurrentTransaction(new Fixtures.ResourceIdImpl(-1 - group), true);
+
+			for (int j = 0; j < MEMBERS; ++j)
+				tm.operateOnResourceInCurrentTransaction(
+						ids[group * MEMBERS + j],
+						Fixtures.ResourceOpImpl.get()
+				);
+
+			tm.commitCurrentTransaction();
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
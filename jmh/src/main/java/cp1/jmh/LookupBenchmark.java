@@ -0,0 +1,73 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Single-operation transactions on a random resource out of a growing
+ * collection. The cost per transaction should not depend on the size.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int resources;
+
+	private TransactionManager tm;
+	private ResourceId[] ids;
+
+	@Setup
+	public void setUp() {
+		List<Resource> r = Fixtures.newResources(resources);
+
+		ids = Fixtures.idsOf(r);
+		tm = TransactionManagerFactory.newTM(r, new Fixtures.LocalTimeProviderImpl());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void singleOperation() throws Exception {
+		Fixtures.runSingleOperation(tm, ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Param;
+
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * The read-mostly transactions on locked resources and validated
+ * at commit, the latter should win while conflicts are rare.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class OptimisticBenchmark extends ReadMostlyBenchmark {
+
+	@Param({ "locking", "optimistic" })
+	public String manager;
+
+	@Param({ "100000", "10000", "1000", "100", "10" })
+	public int resources;
+
+	@Override
+	int resourceCount() {
+		return resources;
+	}
+
+	@Override
+	TransactionManager newManager(List<Resource> resources) {
+		if (manager.equals("optimistic"))
+			return TransactionManagerFactory.newOptimisticTM(resources);
+		else
+			return TransactionManagerFactory.newTM(resources, new Fixtures.LocalTimeProviderImpl());
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Param;
+
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * The resources of low-contention split into 4 ranges of ids, each
+ * one a partition. The transactions of a thread either stay within
+ * one partition or go to all of them, compare with low-contention
+ * of ContentionBenchmark.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class PartitionedBenchmark extends WorkloadBenchmark {
+
+	private static final int PARTITIONS = 4;
+
+	@Param({ "local", "cross" })
+	public String access;
+
+	@Override
+	int resourceCount() {
+		return 100_000;
+	}
+
+	@Override
+	int operations() {
+		return 4;
+	}
+
+	@Override
+	int pick(ThreadLocalRandom random, int thread, int threads, int resourceCount) {
+		if (access.equals("cross"))
+			return random.nextInt(resourceCount);
+
+		int slice = resourceCount / PARTITIONS;
+		return (thread % PARTITIONS) * slice + random.nextInt(slice);
+	}
+
+	@Override
+	TransactionManager newManager(List<Resource> resources) {
+		int size = resources.size();
+
+		return TransactionManagerFactory.newPartitionedTM(
+				resources,
+				new Fixtures.LocalTimeProviderImpl(),
+				PARTITIONS,
+				rid -> ((Fixtures.ResourceIdImpl)rid).value * PARTITIONS / size
+		);
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Param;
+
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * The read-mostly transactions under every deadlock policy,
+ * the fewer resources the more deadlocks.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class PolicyBenchmark extends ReadMostlyBenchmark {
+
+	@Param({ "detection", "periodic", "wound-wait", "wait-die", "no-wait" })
+	public String policy;
+
+	@Param({ "1000", "100", "10" })
+	public int resources;
+
+	@Override
+	int resourceCount() {
+		return resources;
+	}
+
+	@Override
+	TransactionManager newManager(List<Resource> resources) {
+		return TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+						.deadlockPolicy(newPolicy())
+		);
+	}
+
+	private DeadlockPolicy newPolicy() {
+		switch (policy) {
+		case "periodic":
+			return DeadlockPolicy.periodicDetection(10);
+		case "wound-wait":
+			return DeadlockPolicy.woundWait();
+		case "wait-die":
+			return DeadlockPolicy.waitDie();
+		case "no-wait":
+			return DeadlockPolicy.noWait();
+		default:
+			return DeadlockPolicy.detection();
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+
+/**
+ * Three reads and a write each, on random resources, by 8 threads.
+ * The fewer resources there are, the more transactions conflict.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public abstract class ReadMostlyBenchmark {
+
+	private TransactionManager tm;
+	private ResourceId[] ids;
+
+	abstract int resourceCount();
+
+	abstract TransactionManager newManager(List<Resource> resources);
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(resourceCount());
+
+		ids = Fixtures.idsOf(resources);
+		tm = newManager(resources);
+	}
+
+	// Stops the deadlock detector, if the policy has one
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void transaction(Outcomes outcomes) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		try {
+			tm.startTransaction();
+
+			for (int i = 0; i < 4; ++i) {
+				tm.operateOnResourceInCurrentTransaction(
+						ids[random.nextInt(ids.length)],
+						i < 3 ? Fixtures.ResourceReadOpImpl.get() : Fixtures.ResourceOpImpl.get()
+				);
+			}
+
+			tm.commitCurrentTransaction();
+			++outcomes.commits;
+		} catch (ActiveTransactionAborted e) {
+			++outcomes.aborts;
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.DeadlockPolicy;
+import cp1.solution.MT;
+import cp1.solution.TransactionExecutor;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Four writes each, on 8 resources in random order, under policies
+ * which abort the younger transaction. Each transaction is retried
+ * until it commits, either started over as a new one right away or
+ * by an executor keeping its age and backing off. The attempts per
+ * second over the score are the attempts per commit.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class RetryBenchmark {
+
+	@Param({ "wait-die", "wound-wait" })
+	public String policy;
+
+	@Param({ "start-over", "executor" })
+	public String retry;
+
+	private TransactionManager tm;
+	private TransactionExecutor te;
+	private ResourceId[] ids;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Attempts {
+
+		public long attempts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			attempts = 0;
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(8);
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+						.deadlockPolicy(policy.equals("wait-die") ?
+								DeadlockPolicy.waitDie() :
+								DeadlockPolicy.woundWait())
+		);
+		te = new TransactionExecutor(tm);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void transaction(Attempts attempts) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		Callable<Void> body = () -> {
+			++attempts.attempts;
+
+			for (int op = 0; op < 4; ++op) {
+				tm.operateOnResourceInCurrentTransaction(
+						ids[random.nextInt(ids.length)],
+						Fixtures.ResourceOpImpl.get()
+				);
+			}
+
+			return null;
+		};
+
+		if (retry.equals("executor")) {
+			te.runInTransaction(body);
+			return;
+		}
+
+		while (true) {
+			tm.startTransaction();
+
+			try {
+				body.call();
+				tm.commitCurrentTransaction();
+				return;
+			} catch (ActiveTransactionAborted e) {
+				// started over
+			} finally {
+				tm.rollbackCurrentTransaction();
+			}
+		}
+	}
+
+}
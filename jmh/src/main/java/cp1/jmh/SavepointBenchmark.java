@@ -0,0 +1,136 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperationException;
+import cp1.base.SavepointSupport;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Batches of 10 chunks of 10 operations on 10000 resources, one in
+ * a hundred operations failing. On a failure the batch either starts
+ * all over, or goes back to the savepoint set before the chunk.
+ * The operations per second over the score are the operations run
+ * per committed batch.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class SavepointBenchmark {
+
+	@Param({ "start-over", "savepoint" })
+	public String onFailure;
+
+	private SavepointSupport tm;
+	private ResourceId[] ids;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Operations {
+
+		public long operations;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			operations = 0;
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(10_000);
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+		);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void batch(Operations operations) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		boolean useSavepoints = onFailure.equals("savepoint");
+
+		try {
+			tm.startTransaction();
+
+			for (int chunk = 0; chunk < 10; ) {
+				int savepoint = useSavepoints ?
+						tm.setSavepointInCurrentTransaction() : -1;
+
+				try {
+					for (int i = 0; i < 10; ++i) {
+						++operations.operations;
+						tm.operateOnResourceInCurrentTransaction(
+								ids[random.nextInt(ids.length)],
+								random.nextInt(100) == 0 ?
+										Fixtures.ResourceFailingOpImpl.get() :
+										Fixtures.ResourceOpImpl.get()
+						);
+					}
+
+					++chunk;
+				}
+				catch (ResourceOperationException e) {
+					if (useSavepoints) {
+						tm.rollbackCurrentTransactionToSavepoint(savepoint);
+					}
+					else {
+						tm.rollbackCurrentTransaction();
+						tm.startTransaction();
+						chunk = 0;
+					}
+				}
+			}
+
+			tm.commitCurrentTransaction();
+		} catch (ActiveTransactionAborted e) {
+			// a deadlock victim, the next call starts over
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
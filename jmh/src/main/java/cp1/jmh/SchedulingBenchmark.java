@@ -0,0 +1,67 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.GrantScheduler;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Four operations on 64 resources with skewed access, the chance of
+ * picking a resource falls with its index, so a few hot ones get most
+ * operations. Handing released resources to the transactions the
+ * others are queued behind should cut the p99 latency, compare the
+ * two schedulers.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulingBenchmark extends WorkloadBenchmark {
+
+	@Param({ "fifo", "contention-aware" })
+	public String scheduler;
+
+	@Override
+	int resourceCount() {
+		return 64;
+	}
+
+	@Override
+	int operations() {
+		return 4;
+	}
+
+	@Override
+	int pick(ThreadLocalRandom random, int thread, int threads, int resourceCount) {
+		double x = random.nextDouble();
+		return (int)(x * x * x * resourceCount);
+	}
+
+	@Override
+	TransactionManager newManager(List<Resource> resources) {
+		return TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+						.grantScheduler(scheduler.equals("fifo") ?
+								GrantScheduler.fifo() :
+								GrantScheduler.contentionAware(50, TimeUnit.MICROSECONDS))
+		);
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.SnapshotSupport;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Writers changing two out of 8 resources at a time, and readers
+ * of all of them, either locking them or reading a snapshot.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class SnapshotBenchmark {
+
+	@Param({ "locking", "snapshot" })
+	public String reads;
+
+	private SnapshotSupport tm;
+	private ResourceId[] ids;
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = new ArrayList<Resource>();
+
+		for (int i = 0; i < 8; ++i)
+			resources.add(new Fixtures.VersionedResourceImpl(new Fixtures.ResourceIdImpl(i)));
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+		);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(4)
+	public void read(Outcomes outcomes) throws Exception {
+		try {
+			if (reads.equals("snapshot"))
+				tm.startSnapshotTransaction();
+			else
+				tm.startTransaction();
+
+			for (ResourceId rid: ids)
+				tm.operateOnResourceInCurrentTransaction(rid, Fixtures.ResourceReadOpImpl.get());
+
+			tm.commitCurrentTransaction();
+			++outcomes.commits;
+		} catch (ActiveTransactionAborted e) {
+			++outcomes.aborts;
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(4)
+	public void write() throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		try {
+			tm.startTransaction();
+
+			for (int i = 0; i < 2; ++i)
+				tm.operateOnResourceInCurrentTransaction(
+						ids[random.nextInt(ids.length)],
+						Fixtures.ResourceOpImpl.get()
+				);
+
+			tm.commitCurrentTransaction();
+		} catch (ActiveTransactionAborted e) {
+			// a deadlock victim
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * A single transaction running a million operations and rolled back,
+ * with the whole undo log on the heap and with all but the newest
+ * 4096 operations spilled to a file. Run with -prof gc, the collector
+ * should not have to go through the spilled log again and again.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class SpillBenchmark {
+
+	private static final int OPERATIONS = 1_000_000;
+
+	@Param({ "heap", "spilled" })
+	public String undoLog;
+
+	private TransactionManager tm;
+	private ResourceId[] ids;
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(64);
+		MT.Builder builder = MT.builder(resources, new Fixtures.LocalTimeProviderImpl());
+
+		if (undoLog.equals("spilled"))
+			builder.undoSpill(new Fixtures.OperationCodecImpl(), 4096);
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(builder);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void transaction() throws Exception {
+		tm.startTransaction();
+
+		try {
+			for (int i = 0; i < OPERATIONS; ++i)
+				tm.operateOnResourceInCurrentTransaction(
+						ids[i % ids.length],
+						Fixtures.ResourceOpImpl.get()
+				);
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
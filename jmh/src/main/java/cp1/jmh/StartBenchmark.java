@@ -0,0 +1,73 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.solution.MT;
+import cp1.solution.TimestampOracle;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Empty transactions, started and rolled back, stamped by a single
+ * shared counter and by per-thread batches of it. Nothing but the
+ * stamps is shared, so the batched rate should grow with the threads,
+ * compare runs with different -t.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class StartBenchmark {
+
+	@Param({ "counter", "batched" })
+	public String oracle;
+
+	private MT tm;
+
+	@Setup
+	public void setUp() {
+		tm = TransactionManagerFactory.newTM(
+				MT.builder(Fixtures.newResources(1), new Fixtures.LocalTimeProviderImpl())
+						.oracle(oracle.equals("batched") ?
+								TimestampOracle.batched(64) : TimestampOracle.counter())
+		);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void startAndRollback() throws Exception {
+		tm.startTransaction();
+		tm.rollbackCurrentTransaction();
+	}
+
+}
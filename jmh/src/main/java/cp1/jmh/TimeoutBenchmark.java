@@ -0,0 +1,153 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.LockWaitTimeoutException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TimeoutSupport;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Single-operation transactions on 8 resources, while one more thread
+ * keeps holding a random one of them for 20 ms at a time. Without
+ * a timeout everybody else piles up behind it, with one they give up.
+ * The timeout of 0 stands for none.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class TimeoutBenchmark {
+
+	@Param({ "0", "10", "2" })
+	public long timeoutMillis;
+
+	private TimeoutSupport tm;
+	private ResourceId[] ids;
+	private Thread holder;
+	private volatile boolean stopped;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Outcomes {
+
+		public long commits;
+		public long timeouts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			commits = 0;
+			timeouts = 0;
+		}
+
+	}
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(8);
+
+		ids = Fixtures.idsOf(resources);
+		tm = TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+		);
+
+		stopped = false;
+		holder = new Thread(this::hold, "holder");
+		holder.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		stopped = true;
+		holder.join();
+		tm.close();
+	}
+
+	private void hold() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		while (!stopped) {
+			try {
+				tm.startTransaction();
+				tm.operateOnResourceInCurrentTransaction(
+						ids[random.nextInt(ids.length)],
+						Fixtures.ResourceOpImpl.get()
+				);
+				Thread.sleep(20);
+				tm.commitCurrentTransaction();
+			} catch (ActiveTransactionAborted e) {
+				// a deadlock victim, cannot happen here
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			} finally {
+				tm.rollbackCurrentTransaction();
+			}
+		}
+	}
+
+	@Benchmark
+	public void transaction(Outcomes outcomes) throws Exception {
+		ResourceId rid = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+
+		try {
+			tm.startTransaction();
+
+			if (timeoutMillis == 0) {
+				tm.operateOnResourceInCurrentTransaction(
+						rid,
+						Fixtures.ResourceOpImpl.get()
+				);
+			}
+			else {
+				tm.operateOnResourceInCurrentTransaction(
+						rid,
+						Fixtures.ResourceOpImpl.get(),
+						timeoutMillis,
+						TimeUnit.MILLISECONDS
+				);
+			}
+
+			tm.commitCurrentTransaction();
+			++outcomes.commits;
+		} catch (LockWaitTimeoutException e) {
+			++outcomes.timeouts;
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.jmh;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.TransactionManager;
+import cp1.solution.TransactionManagerFactory;
+
+/**
+ * Transactions of a few writes each, on resources chosen by the
+ * subclass, one in ten of them rolled back on purpose instead of being
+ * committed. The commits and aborts per second are reported next to
+ * the score, compare runs with different -t.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public abstract class WorkloadBenchmark {
+
+	private TransactionManager tm;
+	private ResourceId[] ids;
+	private int operations;
+
+	abstract int resourceCount();
+
+	abstract int operations();
+
+	// The index of the next resource a transaction operates on
+	abstract int pick(ThreadLocalRandom random, int thread, int threads, int resourceCount);
+
+	TransactionManager newManager(List<Resource> resources) {
+		return TransactionManagerFactory.newTM(resources, new Fixtures.LocalTimeProviderImpl());
+	}
+
+	@Setup
+	public void setUp() {
+		List<Resource> resources = Fixtures.newResources(resourceCount());
+
+		ids = Fixtures.idsOf(resources);
+		operations = operations();
+		tm = newManager(resources);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tm.close();
+	}
+
+	@Benchmark
+	public void transaction(ThreadParams thread, Outcomes outcomes) throws Exception {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		try {
+			tm.startTransaction();
+
+			for (int i = 0; i < operations; ++i) {
+				int r = pick(random, thread.getThreadIndex(), thread.getThreadCount(), ids.length);
+				tm.operateOnResourceInCurrentTransaction(ids[r], Fixtures.ResourceOpImpl.get());
+			}
+
+			if (random.nextInt(10) != 0) {
+				tm.commitCurrentTransaction();
+				++outcomes.commits;
+			}
+		} catch (ActiveTransactionAborted e) {
+			++outcomes.aborts;
+		} finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+}
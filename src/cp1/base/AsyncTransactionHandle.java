@@ -0,0 +1,37 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A transaction whose calls never block the caller. Each call
+ * returns a future completed once the call is done, or completed
+ * exceptionally with the exception the blocking call would throw.
+ * 
+ * A call may only be made once the future of the previous one
+ * has completed.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface AsyncTransactionHandle {
+	
+	public CompletableFuture<Void> operateOnResource(
+			ResourceId rid,
+			ResourceOperation operation
+	);
+	
+	public CompletableFuture<Void> commit();
+	
+	public CompletableFuture<Void> rollback();
+	
+	public boolean isActive();
+	
+	public boolean isAborted();
+	
+}
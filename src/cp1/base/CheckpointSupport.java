@@ -0,0 +1,29 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A resource whose state can be saved into a checkpoint.
+ * Its copies for snapshots have to support it too.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface CheckpointSupport {
+	
+	// Saves the state into a checkpoint, called on a copy made
+	// by copyForSnapshot
+	public void writeState(DataOutput out) throws IOException;
+	
+	// Restores the state saved by writeState, before any transaction starts
+	public void readState(DataInput in) throws IOException;
+	
+}
@@ -0,0 +1,22 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * A transaction manager whose transactions need not be
+ * bound to a thread.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface DetachedSupport extends TransactionManager {
+	
+	// Starts a transaction which is driven through the returned handle
+	// instead of the calling thread, so it can move between threads.
+	public TransactionHandle startDetachedTransaction();
+	
+}
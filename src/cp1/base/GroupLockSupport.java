@@ -0,0 +1,28 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * A transaction manager for resources arranged in groups.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface GroupLockSupport extends TransactionManager {
+	
+	// Locks the whole group of resources at once, so that the operations
+	// on its members need not lock them one by one
+	public void lockGroupInCurrentTransaction(
+			ResourceId gid,
+			boolean forWriting
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		InterruptedException;
+	
+}
@@ -0,0 +1,25 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * Thrown when an operation would have to wait for a resource past
+ * its deadline. The transaction stays active, without the resource.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public final class LockWaitTimeoutException extends Exception {
+
+	private static final long serialVersionUID = 3157286945621038471L;
+
+	@Override
+	public String getMessage() {
+		return "Timed out waiting for a resource";
+	}
+		
+}
@@ -0,0 +1,44 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Turns resource ids and operations into bytes and back,
+ * so that committed transactions can be logged and replayed.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface OperationCodec {
+	
+	public void writeResourceId(
+			ResourceId rid,
+			DataOutput out
+	) throws
+		IOException;
+	
+	public ResourceId readResourceId(
+			DataInput in
+	) throws
+		IOException;
+	
+	public void writeOperation(
+			ResourceOperation operation,
+			DataOutput out
+	) throws
+		IOException;
+	
+	public ResourceOperation readOperation(
+			DataInput in
+	) throws
+		IOException;
+	
+}
@@ -26,6 +26,29 @@ public class Resource {
 	public final void unapply(ResourceOperation o) {
 		o.undo(this);
 	}
+	
+	// A copy of the current state, on which read-only operations
+	// of snapshot transactions run. Resources returning null
+	// cannot be read in snapshot transactions.
+	public Resource copyForSnapshot() {
+		return null;
+	}
+	
+	// The value escrow deltas of commutative operations change.
+	// However the transactions running them at the same time end,
+	// it stays within the bounds, operations which could take it
+	// out of them fail. Resources without bounds keep the defaults.
+	public long getEscrowValue() {
+		return 0;
+	}
+	
+	public long getEscrowMin() {
+		return Long.MIN_VALUE;
+	}
+	
+	public long getEscrowMax() {
+		return Long.MAX_VALUE;
+	}
 
 	@Override
 	protected final Object clone() throws CloneNotSupportedException {
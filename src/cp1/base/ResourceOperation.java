@@ -12,6 +12,25 @@ public abstract class ResourceOperation {
 	public abstract void execute(Resource r) throws ResourceOperationException;
 	
 	public abstract void undo(Resource r);
+	
+	// Read-only operations of different transactions
+	// may run on the same resource at the same time.
+	public boolean isReadOnly() {
+		return false;
+	}
+	
+	// Operations of different transactions with equal non-null classes
+	// commute, such as increments and decrements of a counter. They may
+	// run on the same resource at the same time, one at a time.
+	public Object getCommutativityClass() {
+		return null;
+	}
+	
+	// How much a commutative operation changes the value
+	// a resource keeps within its escrow bounds
+	public long getEscrowDelta() {
+		return 0;
+	}
 
 	@Override
 	protected final Object clone() throws CloneNotSupportedException {
@@ -0,0 +1,35 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * A transaction manager which can roll a transaction back
+ * part of the way.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface SavepointSupport extends TransactionManager {
+	
+	// Marks the current state of the transaction. Returns the number
+	// of the savepoint, the savepoints of a transaction are numbered
+	// from 0 in the order they are set.
+	public int setSavepointInCurrentTransaction(
+	) throws
+		NoActiveTransactionException;
+	
+	// Undoes the operations run since the savepoint was set and releases
+	// the resources first acquired since, the transaction goes on from
+	// there. The later savepoints are forgotten, this one is kept.
+	// An aborted transaction has to be rolled back as a whole.
+	public void rollbackCurrentTransactionToSavepoint(
+			int savepoint
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+	
+}
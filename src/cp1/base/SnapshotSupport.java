@@ -0,0 +1,27 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+/**
+ * A transaction manager which keeps committed versions
+ * of the resources for readers.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface SnapshotSupport extends TransactionManager {
+	
+	// Starts a read-only transaction that sees the resources as they were
+	// committed when it started, without locking them. Writers are never
+	// waited for, but the transaction is aborted if a version it needs
+	// has been discarded in the meantime. A write, or a read of a resource
+	// which cannot be copied, throws ResourceOperationException.
+	public void startSnapshotTransaction(
+	) throws
+		AnotherTransactionActiveException;
+	
+}
@@ -0,0 +1,45 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transaction manager whose waits for resources can be bounded.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface TimeoutSupport extends TransactionManager {
+	
+	// Starts a transaction whose waits for resources all have to end
+	// within the timeout. Past it, a call which would have to wait throws
+	// LockWaitTimeoutException, or aborts the transaction if the call
+	// cannot throw it.
+	public void startTransaction(
+			long timeout,
+			TimeUnit unit
+	) throws
+		AnotherTransactionActiveException;
+	
+	// Waits for the resource no longer than the timeout, nor past the
+	// deadline of the transaction. On LockWaitTimeoutException the
+	// transaction has left the queue and may go on or be rolled back.
+	public void operateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation,
+			long timeout,
+			TimeUnit unit
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException;
+	
+}
@@ -0,0 +1,74 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.base;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transaction that is not bound to the thread which started it.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public interface TransactionHandle {
+	
+	public void operateOnResource(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+	
+	// As TransactionManager.operateOnResourceInCurrentTransaction
+	// with a timeout
+	public void operateOnResource(
+			ResourceId rid,
+			ResourceOperation operation,
+			long timeout,
+			TimeUnit unit
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException;
+	
+	public void operateOnResources(
+			List<? extends Map.Entry<ResourceId, ResourceOperation>> operations
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException;
+	
+	// The first phase of a commit together with other transactions.
+	// true - the transaction will commit, it cannot be aborted from now on
+	// and has to be either committed or rolled back. false - it has been
+	// aborted already.
+	public boolean prepare(
+	) throws
+		NoActiveTransactionException;
+	
+	public void commit(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted;
+	
+	public void rollback();
+	
+	public boolean isActive();
+	
+	public boolean isAborted();
+	
+}
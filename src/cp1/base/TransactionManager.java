@@ -7,18 +7,35 @@
  */
 package cp1.base;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The transaction manager interface your
  * solution has to implement.
  * 
  * @author Konrad Iwanicki (iwanicki@mimuw.edu.pl)
  */
-public interface TransactionManager {
+public interface TransactionManager extends AutoCloseable {
 	
 	public void startTransaction(
 	) throws
 		AnotherTransactionActiveException;
 	
+	// Starts a transaction unless it would have to wait longer than
+	// the timeout for others to end first, returns whether it has.
+	// Only a manager limiting how many transactions run at once waits.
+	public default boolean tryStartTransaction(
+			long timeout,
+			TimeUnit unit
+	) throws
+		AnotherTransactionActiveException {
+		startTransaction();
+		return true;
+	}
+	
 	public void operateOnResourceInCurrentTransaction(
 			ResourceId rid,
 			ResourceOperation operation
@@ -29,15 +46,59 @@ public interface TransactionManager {
 		ResourceOperationException,
 		InterruptedException;
 	
+	// Runs the operations in the given order. An implementation may
+	// acquire all the resources up front, in the order of their ids.
+	public default void operateOnResourcesInCurrentTransaction(
+			List<? extends Map.Entry<ResourceId, ResourceOperation>> operations
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException {
+		
+		for (Map.Entry<ResourceId, ResourceOperation> op: operations)
+			operateOnResourceInCurrentTransaction(op.getKey(), op.getValue());
+	}
+	
 	public void commitCurrentTransaction(
 	) throws
 		NoActiveTransactionException,
 		ActiveTransactionAborted;
 	
 	public void rollbackCurrentTransaction();
-
+	
+	// Rolls the current transaction back and starts it over, as old as
+	// it was, so that the retry of a deadlock victim does not lose to
+	// the same transactions again. A manager which does not order its
+	// transactions by age just starts a new one.
+	public default void restartCurrentTransaction(
+	) throws
+		NoActiveTransactionException {
+		
+		if (!isTransactionActive())
+			throw new NoActiveTransactionException();
+		
+		rollbackCurrentTransaction();
+		
+		try {
+			startTransaction();
+		}
+		catch (AnotherTransactionActiveException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
 	public boolean isTransactionActive();
 
 	public boolean isTransactionAborted();
+	
+	// Stops whatever the manager runs in the background and closes
+	// the files it keeps open. No transaction may commit afterwards.
+	@Override
+	public default void close(
+	) throws
+		IOException {
+	}
 
 }
@@ -0,0 +1,142 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.demo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cp1.base.Resource;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+import static cp1.demo.Fixtures.expect;
+import static cp1.demo.Fixtures.expectValue;
+import static cp1.demo.Fixtures.id;
+
+/**
+ * Checkpoints and the part of the log they make unnecessary.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class Checkpoints {
+	
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("checkpoints");
+		
+		try {
+			repeatedCheckpoint(dir);
+			logAfterCheckpoint(dir);
+		}
+		finally {
+			delete(dir);
+		}
+		
+		System.out.println("Checkpoints OK");
+	}
+	
+	private static void delete(Path path) throws Exception {
+		if (Files.isDirectory(path))
+			for (Path p: Files.list(path).toArray(Path[]::new))
+				delete(p);
+		Files.delete(path);
+	}
+	
+	private static MT open(Path dir, List<Resource> resources) throws Exception {
+		return TransactionManagerFactory.newDurableTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl()),
+				dir.resolve("log"),
+				dir.resolve("checkpoint"),
+				new Fixtures.OperationCodecImpl()
+		);
+	}
+	
+	private static void add(MT tm, int resource, long delta) throws Exception {
+		tm.startTransaction();
+		tm.operateOnResourceInCurrentTransaction(id(resource), new Fixtures.AddOpImpl(delta));
+		tm.commitCurrentTransaction();
+	}
+	
+	private static Map<Path, FileTime> modified(Path dir) throws Exception {
+		Map<Path, FileTime> modified = new HashMap<>();
+		for (Path p: Files.list(dir).toArray(Path[]::new))
+			modified.put(p.getFileName(), Files.getLastModifiedTime(p));
+		return modified;
+	}
+	
+	// A checkpoint with no commits since the last one leaves
+	// the files of the last one as they are
+	private static void repeatedCheckpoint(Path dir) throws Exception {
+		Path tmDir = Files.createDirectory(dir.resolve("repeated"));
+		MT tm = open(tmDir, Fixtures.newResources(3));
+		
+		add(tm, 0, 4);
+		add(tm, 2, 1);
+		tm.checkpoint();
+		
+		Map<Path, FileTime> written = modified(tmDir.resolve("checkpoint"));
+		
+		// Past the resolution of modification times
+		Thread.sleep(50);
+		tm.checkpoint();
+		
+		expect(written.equals(modified(tmDir.resolve("checkpoint"))),
+				"The second checkpoint has rewritten the first one");
+		
+		add(tm, 1, 3);
+		tm.checkpoint();
+		tm.close();
+		
+		List<Resource> recovered = Fixtures.newResources(3);
+		open(tmDir, recovered).close();
+		
+		expectValue(recovered.get(0), 4);
+		expectValue(recovered.get(1), 3);
+		expectValue(recovered.get(2), 1);
+	}
+	
+	// The log keeps only what has been committed after the last
+	// checkpoint, and a restart replays it on top of the checkpoint
+	private static void logAfterCheckpoint(Path dir) throws Exception {
+		Path tmDir = Files.createDirectory(dir.resolve("log"));
+		Path log = tmDir.resolve("log");
+		MT tm = open(tmDir, Fixtures.newResources(2));
+		
+		for (int i = 0; i < 100; ++i)
+			add(tm, i % 2, 1);
+		
+		long full = Files.size(log);
+		tm.checkpoint();
+		
+		expect(Files.size(log) == 0, "The log still holds checkpointed records");
+		
+		add(tm, 0, 10);
+		
+		expect(Files.size(log) > 0 && Files.size(log) < full, "The log has not been written after the checkpoint");
+		tm.close();
+		
+		List<Resource> recovered = Fixtures.newResources(2);
+		MT reopened = open(tmDir, recovered);
+		
+		expectValue(recovered.get(0), 60);
+		expectValue(recovered.get(1), 50);
+		
+		add(reopened, 1, 1);
+		reopened.close();
+		
+		List<Resource> again = Fixtures.newResources(2);
+		open(tmDir, again).close();
+		
+		expectValue(again.get(0), 60);
+		expectValue(again.get(1), 51);
+	}
+	
+}
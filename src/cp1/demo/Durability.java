@@ -0,0 +1,185 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.demo;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.Resource;
+import cp1.base.TransactionManager;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+import static cp1.demo.Fixtures.expect;
+import static cp1.demo.Fixtures.expectValue;
+import static cp1.demo.Fixtures.id;
+
+/**
+ * Recovery from the write-ahead log. A crash is simulated by copying
+ * the log aside while the manager still runs, and opening another
+ * manager on the copy.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class Durability {
+	
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("durability");
+		
+		try {
+			replayAfterCrash(dir);
+			readsOnlyDurableCommits(dir);
+		}
+		finally {
+			for (Path p: Files.list(dir).toArray(Path[]::new))
+				Files.delete(p);
+			Files.delete(dir);
+		}
+		
+		System.out.println("Durability OK");
+	}
+	
+	private static MT open(Path log, List<Resource> resources) throws Exception {
+		return TransactionManagerFactory.newDurableTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl()),
+				log,
+				null,
+				new Fixtures.OperationCodecImpl()
+		);
+	}
+	
+	private static Path crash(Path log) throws Exception {
+		Path copy = log.resolveSibling(log.getFileName() + ".crashed");
+		Files.copy(log, copy, StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+	
+	// Committed transactions are replayed, the rolled back and the
+	// unfinished ones are not, and a torn record at the end is cut off
+	private static void replayAfterCrash(Path dir) throws Exception {
+		Path log = dir.resolve("replay.log");
+		List<Resource> resources = Fixtures.newResources(4);
+		MT tm = open(log, resources);
+		
+		tm.startTransaction();
+		tm.operateOnResourceInCurrentTransaction(id(0), new Fixtures.AddOpImpl(5));
+		tm.operateOnResourceInCurrentTransaction(id(1), new Fixtures.AddOpImpl(-3));
+		tm.commitCurrentTransaction();
+		
+		tm.startTransaction();
+		tm.operateOnResourceInCurrentTransaction(id(2), new Fixtures.AddOpImpl(7));
+		tm.rollbackCurrentTransaction();
+		
+		tm.startTransaction();
+		tm.operateOnResourceInCurrentTransaction(id(0), new Fixtures.AddOpImpl(2));
+		tm.commitCurrentTransaction();
+		
+		// Still running when the process dies
+		tm.startTransaction();
+		tm.operateOnResourceInCurrentTransaction(id(3), new Fixtures.AddOpImpl(1));
+		
+		Path crashed = crash(log);
+		long size = Files.size(crashed);
+		
+		tm.rollbackCurrentTransaction();
+		tm.close();
+		
+		try (FileChannel channel = FileChannel.open(crashed, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 40, 1, 2, 3 }));
+		}
+		
+		List<Resource> recovered = Fixtures.newResources(4);
+		MT reopened = open(crashed, recovered);
+		
+		expectValue(recovered.get(0), 7);
+		expectValue(recovered.get(1), -3);
+		expectValue(recovered.get(2), 0);
+		expectValue(recovered.get(3), 0);
+		expect(Files.size(crashed) == size, "The torn record has not been cut off");
+		
+		// Goes on logging after the recovered records
+		reopened.startTransaction();
+		reopened.operateOnResourceInCurrentTransaction(id(2), new Fixtures.AddOpImpl(1));
+		reopened.commitCurrentTransaction();
+		reopened.close();
+		
+		List<Resource> again = Fixtures.newResources(4);
+		open(crashed, again).close();
+		
+		expectValue(again.get(0), 7);
+		expectValue(again.get(2), 1);
+	}
+	
+	// Whatever a read-only or snapshot transaction has read
+	// survives a crash right after it commits
+	private static void readsOnlyDurableCommits(Path dir) throws Exception {
+		Path log = dir.resolve("reads.log");
+		List<Resource> resources = Fixtures.newResources(1);
+		MT tm = open(log, resources);
+		AtomicBoolean stopped = new AtomicBoolean();
+		
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!stopped.get()) {
+						tm.startTransaction();
+						tm.operateOnResourceInCurrentTransaction(id(0), new Fixtures.AddOpImpl(1));
+						tm.commitCurrentTransaction();
+					}
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		
+		writer.start();
+		
+		try {
+			for (int i = 0; i < 50; ++i) {
+				if (i % 2 == 0)
+					tm.startTransaction();
+				else
+					tm.startSnapshotTransaction();
+				
+				Fixtures.ReadValueOpImpl read = new Fixtures.ReadValueOpImpl();
+				
+				try {
+					tm.operateOnResourceInCurrentTransaction(id(0), read);
+					tm.commitCurrentTransaction();
+				} catch (ActiveTransactionAborted e) {
+					// The snapshot is too old by now
+					continue;
+				} finally {
+					tm.rollbackCurrentTransaction();
+				}
+				
+				List<Resource> recovered = Fixtures.newResources(1);
+				TransactionManager reopened = open(crash(log), recovered);
+				long value = ((Fixtures.ResourceImpl)recovered.get(0)).getValue();
+				reopened.close();
+				
+				expect(value >= read.getValue(),
+						"Read " + read.getValue() + " but only " + value + " survived the crash");
+			}
+		}
+		finally {
+			stopped.set(true);
+			writer.join();
+			tm.close();
+		}
+	}
+	
+}
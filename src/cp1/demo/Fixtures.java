@@ -0,0 +1,209 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.demo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cp1.base.CheckpointSupport;
+import cp1.base.LocalTimeProvider;
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+
+/**
+ * Resources and operations shared by the tests of this package.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class Fixtures {
+	
+	private Fixtures() {
+	}
+	
+	static List<Resource> newResources(int count) {
+		List<Resource> resources = new ArrayList<Resource>(count);
+		
+		for (int i = 0; i < count; ++i)
+			resources.add(new ResourceImpl(new ResourceIdImpl(i)));
+		
+		return resources;
+	}
+	
+	static ResourceId id(int value) {
+		return new ResourceIdImpl(value);
+	}
+	
+	static void expectValue(Resource r, long val) {
+		long value = ((ResourceImpl)r).getValue();
+		
+		if (value != val) {
+			throw new AssertionError(
+					"For resource " + r.getId() +
+					", expected value " + val +
+					", but got value " + value
+			);
+		}
+	}
+	
+	static void expect(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	// ---------------------------------------------------------
+	// -                                                       -
+	// -     Sample implementations of the base interfaces     -
+	// -                                                       -
+	// ---------------------------------------------------------
+	
+	static final class LocalTimeProviderImpl implements LocalTimeProvider {
+		@Override
+		public long getTime() {
+			return System.currentTimeMillis();
+		}
+	}
+	
+	static final class ResourceIdImpl implements ResourceId {
+		private final int value;
+		
+		ResourceIdImpl(int value) {
+			this.value = value;
+		}
+		@Override
+		public int compareTo(ResourceId other) {
+			return Integer.compare(this.value, ((ResourceIdImpl)other).value);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (! (obj instanceof ResourceIdImpl)) {
+				return false;
+			}
+			return this.value == ((ResourceIdImpl)obj).value;
+		}
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(this.value);
+		}
+		@Override
+		public String toString() {
+			return "R" + this.value;
+		}
+	}
+	
+	static final class ResourceImpl extends Resource implements CheckpointSupport {
+		private volatile long value = 0;
+		public ResourceImpl(ResourceId id) {
+			super(id);
+		}
+		public void addValue(long delta) {
+			this.value = this.value + delta;
+		}
+		public long getValue() {
+			return this.value;
+		}
+		@Override
+		public Resource copyForSnapshot() {
+			ResourceImpl copy = new ResourceImpl(getId());
+			copy.value = this.value;
+			return copy;
+		}
+		@Override
+		public void writeState(DataOutput out) throws IOException {
+			out.writeLong(this.value);
+		}
+		@Override
+		public void readState(DataInput in) throws IOException {
+			this.value = in.readLong();
+		}
+	}
+	
+	static final class AddOpImpl extends ResourceOperation {
+		private final long delta;
+		public AddOpImpl(long delta) {
+			this.delta = delta;
+		}
+		@Override
+		public void execute(Resource r) {
+			((ResourceImpl)r).addValue(delta);
+		}
+		@Override
+		public void undo(Resource r) {
+			((ResourceImpl)r).addValue(-delta);
+		}
+	}
+	
+	static final class ReadOpImpl extends ResourceOperation {
+		@Override
+		public void execute(Resource r) {
+			((ResourceImpl)r).getValue();
+		}
+		@Override
+		public void undo(Resource r) {
+		}
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+	}
+	
+	// Remembers the value it has read
+	static final class ReadValueOpImpl extends ResourceOperation {
+		private long value;
+		public long getValue() {
+			return this.value;
+		}
+		@Override
+		public void execute(Resource r) {
+			this.value = ((ResourceImpl)r).getValue();
+		}
+		@Override
+		public void undo(Resource r) {
+		}
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+	}
+	
+	static final class FailingOpImpl extends ResourceOperation {
+		@Override
+		public void execute(Resource r) throws ResourceOperationException {
+			throw new ResourceOperationException(r.getId(), this);
+		}
+		@Override
+		public void undo(Resource r) {
+		}
+	}
+	
+	// Only knows AddOpImpl
+	static final class OperationCodecImpl implements OperationCodec {
+		@Override
+		public void writeResourceId(ResourceId rid, DataOutput out) throws IOException {
+			out.writeInt(((ResourceIdImpl)rid).value);
+		}
+		@Override
+		public ResourceId readResourceId(DataInput in) throws IOException {
+			return new ResourceIdImpl(in.readInt());
+		}
+		@Override
+		public void writeOperation(ResourceOperation operation, DataOutput out) throws IOException {
+			out.writeLong(((AddOpImpl)operation).delta);
+		}
+		@Override
+		public ResourceOperation readOperation(DataInput in) throws IOException {
+			return new AddOpImpl(in.readLong());
+		}
+	}
+	
+}
@@ -0,0 +1,194 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.demo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cp1.base.LockWaitTimeoutException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.solution.MT;
+import cp1.solution.TransactionManagerFactory;
+
+import static cp1.demo.Fixtures.expect;
+import static cp1.demo.Fixtures.expectValue;
+import static cp1.demo.Fixtures.id;
+
+/**
+ * Escalation of member locks to nested groups: resources R0 to R11
+ * belong to groups 100, 101 and 102 in turn, all of which belong
+ * to group 200, and a group is escalated to once two of its members
+ * are held. Whatever a transaction has written stays locked until
+ * it ends.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class GroupEscalation {
+	
+	private final static long WAIT_MILLIS = 50;
+	
+	public static void main(String[] args) throws Exception {
+		writesAcrossSubgroups();
+		readsAcrossSubgroups();
+		rollbackAfterEscalation();
+		System.out.println("Group escalation OK");
+	}
+	
+	private static MT newManager(List<Resource> resources) {
+		Map<ResourceId, ResourceId> groups = new HashMap<ResourceId, ResourceId>();
+		
+		for (int i = 0; i < resources.size(); ++i)
+			groups.put(id(i), id(100 + i % 3));
+		for (int g = 100; g < 103; ++g)
+			groups.put(id(g), id(200));
+		
+		return TransactionManagerFactory.newTM(
+				MT.builder(resources, new Fixtures.LocalTimeProviderImpl())
+						.groups(groups, 2)
+		);
+	}
+	
+	// The third member, in the third subgroup, escalates to group 200
+	// while its subgroup is being locked
+	private static void writesAcrossSubgroups() throws Exception {
+		List<Resource> resources = Fixtures.newResources(12);
+		MT tm = newManager(resources);
+		
+		tm.startTransaction();
+		
+		for (int i: new int[] { 0, 4, 8 })
+			tm.operateOnResourceInCurrentTransaction(id(i), new Fixtures.AddOpImpl(1));
+		
+		expect(isBlocked(tm, id(0), new Fixtures.ReadOpImpl()),
+				"R0 has been written, yet another transaction has read it");
+		expect(isBlocked(tm, id(8), new Fixtures.AddOpImpl(1)),
+				"R8 has been written, yet another transaction has written it");
+		expect(isBlocked(tm, id(1), new Fixtures.AddOpImpl(1)),
+				"Group 200 is held as a whole, yet another transaction has written R1");
+		
+		tm.operateOnResourceInCurrentTransaction(id(1), new Fixtures.AddOpImpl(1));
+		tm.commitCurrentTransaction();
+		
+		expect(!isBlocked(tm, id(0), new Fixtures.AddOpImpl(1)),
+				"R0 is still locked after the commit");
+		
+		expectValue(resources.get(0), 1);
+		expectValue(resources.get(1), 1);
+		expectValue(resources.get(4), 1);
+		expectValue(resources.get(8), 1);
+		
+		tm.close();
+	}
+	
+	private static void readsAcrossSubgroups() throws Exception {
+		List<Resource> resources = Fixtures.newResources(12);
+		MT tm = newManager(resources);
+		
+		tm.startTransaction();
+		
+		for (int i: new int[] { 0, 4, 8 })
+			tm.operateOnResourceInCurrentTransaction(id(i), new Fixtures.ReadOpImpl());
+		
+		expect(!isBlocked(tm, id(0), new Fixtures.ReadOpImpl()),
+				"R0 has only been read, yet another transaction cannot read it");
+		expect(isBlocked(tm, id(0), new Fixtures.AddOpImpl(1)),
+				"R0 has been read, yet another transaction has written it");
+		expect(isBlocked(tm, id(2), new Fixtures.AddOpImpl(1)),
+				"Group 200 is held as a whole, yet another transaction has written R2");
+		
+		tm.commitCurrentTransaction();
+		tm.close();
+	}
+	
+	// Rolling back to a savepoint set before the escalations undoes what
+	// was written since and frees the groups first locked since, while
+	// what was written before stays locked under its escalated group
+	private static void rollbackAfterEscalation() throws Exception {
+		List<Resource> resources = Fixtures.newResources(12);
+		MT tm = newManager(resources);
+		
+		tm.startTransaction();
+		tm.operateOnResourceInCurrentTransaction(id(0), new Fixtures.AddOpImpl(1));
+		
+		int savepoint = tm.setSavepointInCurrentTransaction();
+		
+		// Group 100 is escalated to, releasing R0, group 101 is locked
+		// and escalated to after the savepoint
+		for (int i: new int[] { 3, 1, 4 })
+			tm.operateOnResourceInCurrentTransaction(id(i), new Fixtures.AddOpImpl(1));
+		
+		tm.rollbackCurrentTransactionToSavepoint(savepoint);
+		
+		expectValue(resources.get(0), 1);
+		expectValue(resources.get(1), 0);
+		expectValue(resources.get(3), 0);
+		expectValue(resources.get(4), 0);
+		
+		expect(isBlocked(tm, id(0), new Fixtures.ReadOpImpl()),
+				"R0 has been written before the savepoint, yet another transaction has read it");
+		expect(!isBlocked(tm, id(1), new Fixtures.AddOpImpl(1)),
+				"Group 101 is still locked after rolling back to the savepoint");
+		
+		// Goes on as if the rolled back part had not run
+		tm.operateOnResourceInCurrentTransaction(id(3), new Fixtures.AddOpImpl(2));
+		tm.operateOnResourceInCurrentTransaction(id(8), new Fixtures.AddOpImpl(2));
+		tm.commitCurrentTransaction();
+		
+		expect(!isBlocked(tm, id(0), new Fixtures.AddOpImpl(1)),
+				"R0 is still locked after the commit");
+		
+		expectValue(resources.get(0), 1);
+		expectValue(resources.get(1), 0);
+		expectValue(resources.get(3), 2);
+		expectValue(resources.get(8), 2);
+		
+		tm.close();
+	}
+	
+	// Whether another transaction waits in vain for the resource,
+	// anything it has done is rolled back
+	private static boolean isBlocked(
+			MT tm,
+			ResourceId rid,
+			ResourceOperation operation
+	) throws InterruptedException {
+		AtomicBoolean blocked = new AtomicBoolean();
+		
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tm.startTransaction();
+					tm.operateOnResourceInCurrentTransaction(
+							rid,
+							operation,
+							WAIT_MILLIS,
+							TimeUnit.MILLISECONDS
+					);
+				} catch (LockWaitTimeoutException e) {
+					blocked.set(true);
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				} finally {
+					tm.rollbackCurrentTransaction();
+				}
+			}
+		});
+		
+		other.start();
+		other.join();
+		
+		return blocked.get();
+	}
+	
+}
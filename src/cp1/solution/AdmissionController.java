@@ -0,0 +1,344 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * How many transactions MT lets run at once.
+ *
+ * Past some number of transactions on the same resources, adding one more
+ * only adds waits, deadlocks and aborts, and fewer of them commit. A start
+ * beyond the limit is queued until a running transaction ends, the oldest
+ * queued one first, or given up at the deadline of tryStartTransaction.
+ * A transaction keeps its place while it runs, and gives it up once
+ * committed or rolled back. Restarting it queues it again.
+ *
+ * Snapshot transactions never wait for anyone and are not counted.
+ * A thread starting a detached transaction while its earlier ones still
+ * run may end up waiting for the places it holds itself.
+ * An instance is used by a single transaction manager.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public abstract class AdmissionController {
+
+	AdmissionController() {
+	}
+
+	// Lets every transaction start at once
+	public static AdmissionController unlimited() {
+		return new Unlimited();
+	}
+
+	// At most limit transactions at a time
+	public static AdmissionController fixed(int limit) {
+		if (limit < 1)
+			throw new IllegalArgumentException("The limit has to admit a transaction");
+
+		return new Limited(limit, limit);
+	}
+
+	// Starting from minLimit transactions at a time, goes up by one while
+	// starts are queued and more transactions commit, and down by a quarter
+	// once too many are aborted or the transactions spend most of their time
+	// waiting for resources, never past the bounds given
+	public static AdmissionController adaptive(int minLimit, int maxLimit) {
+		if (minLimit < 1)
+			throw new IllegalArgumentException("The limit has to admit a transaction");
+		if (maxLimit < minLimit)
+			throw new IllegalArgumentException("The bounds are the wrong way round");
+
+		return new Adaptive(minLimit, maxLimit);
+	}
+
+	// How many transactions may run at the moment
+	public abstract int getLimit();
+
+	// Waits until tr may start
+	abstract void admit(Transaction tr);
+
+	// Waits until tr may start, no longer than until the deadline,
+	// in System.nanoTime(). Returns false if it was not admitted.
+	abstract boolean admit(Transaction tr, long deadline);
+
+	// Called once an admitted tr has committed or has been rolled back
+	void release(Transaction tr, boolean committed) {
+	}
+
+	private static final class Unlimited extends AdmissionController {
+
+		@Override
+		public int getLimit() {
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		void admit(Transaction tr) {
+		}
+
+		@Override
+		boolean admit(Transaction tr, long deadline) {
+			return true;
+		}
+
+	}
+
+	private static class Limited extends AdmissionController {
+
+		private final AtomicInteger active = new AtomicInteger();
+		private volatile int limit;
+
+		// The queued starts, signalled in the order they have been queued
+		private final ReentrantLock lock = new ReentrantLock(true);
+		private final Condition slotFreed = lock.newCondition();
+		private volatile int waiting = 0;
+
+		final int minLimit;
+		final int maxLimit;
+
+		Limited(int minLimit, int maxLimit) {
+			this.minLimit = minLimit;
+			this.maxLimit = maxLimit;
+			this.limit = minLimit;
+		}
+
+		@Override
+		public int getLimit() {
+			return limit;
+		}
+
+		// Wakes the queued starts up if it has gone up
+		final void setLimit(int newLimit) {
+			int oldLimit = limit;
+			limit = newLimit;
+
+			if (newLimit > oldLimit)
+				signalWaiting(true);
+		}
+
+		@Override
+		void admit(Transaction tr) {
+			await(tr, false, 0);
+		}
+
+		@Override
+		boolean admit(Transaction tr, long deadline) {
+			return await(tr, true, deadline);
+		}
+
+		// Nobody overtakes the queued starts, unless one of them has just
+		// been signalled and has not taken the place yet
+		private boolean await(Transaction tr, boolean timed, long deadline) {
+			if (waiting == 0 && tryAcquire()) {
+				admitted(tr);
+				return true;
+			}
+
+			boolean interrupted = false;
+
+			lock.lock();
+			try {
+				// Counted before trying, so a release in the meantime
+				// either leaves a place or signals
+				++waiting;
+				onQueued();
+
+				while (!tryAcquire()) {
+					long remaining = deadline - System.nanoTime();
+
+					if (timed && remaining <= 0)
+						return false;
+
+					// The transaction has not started yet, nothing to abort,
+					// the interrupt is left for the code it is started by
+					try {
+						if (timed)
+							slotFreed.awaitNanos(remaining);
+						else
+							slotFreed.await();
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			finally {
+				--waiting;
+
+				// The place taken may have been signalled for someone else
+				if (waiting > 0 && active.get() < limit)
+					slotFreed.signal();
+
+				lock.unlock();
+
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+
+			admitted(tr);
+			return true;
+		}
+
+		private boolean tryAcquire() {
+			while (true) {
+				int n = active.get();
+
+				if (n >= limit)
+					return false;
+				if (active.compareAndSet(n, n + 1))
+					return true;
+			}
+		}
+
+		@Override
+		void release(Transaction tr, boolean committed) {
+			active.decrementAndGet();
+			onReleased(tr, committed);
+
+			if (waiting > 0)
+				signalWaiting(false);
+		}
+
+		private void signalWaiting(boolean all) {
+			lock.lock();
+			try {
+				if (all)
+					slotFreed.signalAll();
+				else
+					slotFreed.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		void admitted(Transaction tr) {
+		}
+
+		// Called under the lock
+		void onQueued() {
+		}
+
+		void onReleased(Transaction tr, boolean committed) {
+		}
+
+	}
+
+	private static final class Adaptive extends Limited {
+
+		// Past these the transactions are taken to be thrashing
+		private static final double MAX_ABORT_RATE = 0.1;
+		private static final double MAX_WAIT_SHARE = 0.5;
+
+		// The least number of transactions over which the limit is set,
+		// twice the limit if more
+		private static final int MIN_SAMPLE = 16;
+
+		// Of the throughput, which the last step up has to keep
+		private static final double TOLERANCE = 0.9;
+
+		// Of the transactions ended since the last step
+		private final LongAdder ended = new LongAdder();
+		private final LongAdder commits = new LongAdder();
+		private final LongAdder aborts = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder runNanos = new LongAdder();
+		private volatile boolean queued = false;
+
+		// Taken by the transaction which sets the limit, the others
+		// go on without waiting for it
+		private final ReentrantLock stepping = new ReentrantLock();
+		private long windowStart = System.nanoTime();
+		private double lastThroughput = 0;
+		private boolean steppedUp = false;
+
+		private Adaptive(int minLimit, int maxLimit) {
+			super(minLimit, maxLimit);
+		}
+
+		@Override
+		void admitted(Transaction tr) {
+			tr.setAdmittedAt(System.nanoTime());
+		}
+
+		@Override
+		void onQueued() {
+			if (!queued)
+				queued = true;
+		}
+
+		@Override
+		void onReleased(Transaction tr, boolean committed) {
+			long now = System.nanoTime();
+
+			if (committed)
+				commits.increment();
+			else if (tr.isFlgAborted())
+				aborts.increment();
+
+			waitNanos.add(tr.getWaitNanos());
+			runNanos.add(now - tr.getAdmittedAt());
+			ended.increment();
+
+			if (ended.sum() >= Math.max(MIN_SAMPLE, 2 * getLimit()) && stepping.tryLock()) {
+				try {
+					step(now);
+				}
+				finally {
+					stepping.unlock();
+				}
+			}
+		}
+
+		// The counters are read one by one while transactions go on
+		// ending, a few of them may be counted in the next window
+		private void step(long now) {
+			long n = ended.sumThenReset();
+
+			// Another transaction has just taken the step
+			if (n == 0)
+				return;
+
+			long c = commits.sumThenReset();
+			long a = aborts.sumThenReset();
+			long waited = waitNanos.sumThenReset();
+			long ran = runNanos.sumThenReset();
+			boolean saturated = queued;
+			queued = false;
+
+			double throughput = c / (double)Math.max(1, now - windowStart);
+			windowStart = now;
+
+			int limit = getLimit();
+			int newLimit = limit;
+
+			if (a > MAX_ABORT_RATE * n || waited > MAX_WAIT_SHARE * ran) {
+				newLimit = Math.max(minLimit, limit - Math.max(1, limit / 4));
+			}
+			else if (steppedUp && throughput < TOLERANCE * lastThroughput) {
+				// The last transaction let in has only got in the way
+				newLimit = Math.max(minLimit, limit - 1);
+			}
+			else if (saturated) {
+				newLimit = Math.min(maxLimit, limit + 1);
+			}
+
+			steppedUp = newLimit > limit;
+			lastThroughput = throughput;
+
+			if (newLimit != limit)
+				setLimit(newLimit);
+		}
+
+	}
+
+}
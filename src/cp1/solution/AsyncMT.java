@@ -0,0 +1,274 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AsyncTransactionHandle;
+import cp1.base.LocalTimeProvider;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.UnknownResourceIdException;
+
+/**
+ * The transaction manager for callers which must not block.
+ *
+ * Locking and deadlock resolution are those of MT. A transaction
+ * which has to wait for a resource is not parked though: once the
+ * resource is handed over to it, the operation is run on the executor.
+ * The commit of a durable manager completes once it is on the disk,
+ * the wait for the log is run on the executor as well.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class AsyncMT {
+
+	private final MT mt;
+	private final Executor executor;
+
+	protected AsyncMT(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			Executor executor
+	) {
+		this(new MT(resources, timeProvider), executor);
+	}
+
+	// The transactions are run by mt, which nobody else uses
+	AsyncMT(MT mt, Executor executor) {
+		this.mt = mt;
+		this.executor = executor;
+	}
+
+	public AsyncTransactionHandle startTransaction() {
+		return new Handle(mt.newTransaction());
+	}
+
+	public Statistics getStatistics() {
+		return mt.getStatistics();
+	}
+
+	// Closes the log of a durable manager, no transaction
+	// may commit afterwards
+	public void close() throws IOException {
+		mt.close();
+	}
+
+	private static CompletableFuture<Void> failed(Exception e) {
+		CompletableFuture<Void> result = new CompletableFuture<Void>();
+		result.completeExceptionally(e);
+		return result;
+	}
+
+	private static void execute(
+			Transaction tr,
+			ResourceLock resource,
+			ResourceOperation operation,
+			CompletableFuture<Void> result
+	) {
+		try {
+			tr.reserveOperation();
+			resource.apply(tr, operation);
+			tr.registerOperation(operation, resource);
+			result.complete(null);
+		}
+		catch (ResourceOperationException | RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private final class Handle implements AsyncTransactionHandle {
+
+		// null once the transaction has finished
+		private volatile Transaction tr;
+
+		private Handle(Transaction tr) {
+			this.tr = tr;
+		}
+
+		@Override
+		public CompletableFuture<Void> operateOnResource(
+				ResourceId rid,
+				ResourceOperation operation
+		) {
+			Transaction currentTr = tr;
+
+			if (currentTr == null)
+				return failed(new NoActiveTransactionException());
+
+			ResourceLock resource = mt.getResourceLock(rid);
+
+			if (resource == null)
+				return failed(new UnknownResourceIdException(rid));
+
+			if (currentTr.isFlgAborted())
+				return failed(new ActiveTransactionAborted());
+
+			CompletableFuture<Void> result = new CompletableFuture<Void>();
+			LockMode mode = resource.modeFor(operation);
+			Object commutativity = operation.getCommutativityClass();
+			LockMode held = currentTr.getHeldMode(resource);
+
+			if (held == LockMode.COMMUTATIVE && mode == LockMode.COMMUTATIVE &&
+					!resource.isCommutingAs(currentTr, commutativity))
+				mode = LockMode.EXCLUSIVE;
+
+			if (held != null)
+				mode = held.combine(mode);
+			if (mode != LockMode.COMMUTATIVE)
+				commutativity = null;
+
+			if (held != null && held.covers(mode)) {
+				execute(currentTr, resource, operation, result);
+			}
+			else if (resource.tryAcquireOrEnqueue(currentTr, mode, commutativity)) {
+				mt.onGranted(currentTr, resource);
+				currentTr.addResource(resource, mode);
+				execute(currentTr, resource, operation, result);
+			}
+			else {
+				Grant grant = new Grant(currentTr, resource, mode, operation, result);
+				currentTr.setWakeUpAction(grant);
+
+				// Handed over or aborted before the action has been set
+				if (currentTr.getWaitingOn() != resource || currentTr.isFlgAborted())
+					grant.run();
+
+				mt.onBlocked(currentTr, resource);
+			}
+
+			return result;
+		}
+
+		@Override
+		public CompletableFuture<Void> commit() {
+			Transaction currentTr = tr;
+
+			if (currentTr == null)
+				return failed(new NoActiveTransactionException());
+
+			long record;
+
+			try {
+				record = mt.commit(currentTr);
+			}
+			catch (ActiveTransactionAborted e) {
+				return failed(e);
+			}
+
+			tr = null;
+
+			if (record == 0)
+				return CompletableFuture.completedFuture(null);
+			else
+				return CompletableFuture.runAsync(() -> mt.awaitDurable(record), executor);
+		}
+
+		@Override
+		public CompletableFuture<Void> rollback() {
+			Transaction currentTr = tr;
+
+			if (currentTr != null) {
+				mt.rollback(currentTr);
+				tr = null;
+			}
+
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public boolean isActive() {
+			return tr != null;
+		}
+
+		@Override
+		public boolean isAborted() {
+			Transaction currentTr = tr;
+			return currentTr != null && currentTr.isFlgAborted();
+		}
+
+	}
+
+	// Woken up when the resource has been handed over to the transaction
+	// or the transaction has been aborted, possibly more than once.
+	private final class Grant implements Runnable {
+
+		private final Transaction tr;
+		private final ResourceLock resource;
+		private final LockMode mode;
+		private final ResourceOperation operation;
+		private final CompletableFuture<Void> result;
+
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private final long queuedAt = System.nanoTime();
+
+		private Grant(
+				Transaction tr,
+				ResourceLock resource,
+				LockMode mode,
+				ResourceOperation operation,
+				CompletableFuture<Void> result
+		) {
+			this.tr = tr;
+			this.resource = resource;
+			this.mode = mode;
+			this.operation = operation;
+			this.result = result;
+		}
+
+		@Override
+		public void run() {
+			if (done.get())
+				return;
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					resume();
+				}
+			});
+		}
+
+		private void resume() {
+			boolean waiting = tr.getWaitingOn() == resource;
+
+			if (waiting && !tr.isFlgAborted())
+				return;
+			if (!done.compareAndSet(false, true))
+				return;
+
+			tr.setWakeUpAction(null);
+			long waited = System.nanoTime() - queuedAt;
+
+			resource.recordWait(waited);
+			tr.addWaitNanos(waited);
+
+			if (waiting && resource.cancel(tr)) {
+				result.completeExceptionally(new ActiveTransactionAborted());
+				return;
+			}
+
+			tr.addResource(resource, mode);
+
+			if (tr.isFlgAborted())
+				result.completeExceptionally(new ActiveTransactionAborted());
+			else
+				execute(tr, resource, operation, result);
+		}
+
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+
+import cp1.base.CheckpointSupport;
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+
+/**
+ * The states of all resources as of a commit timestamp, kept in
+ * memory-mapped segment files of a directory.
+ *
+ * Every resource and its copies for snapshots implement CheckpointSupport.
+ * A checkpoint is written from the versions kept for snapshot reads,
+ * so transactions go on in the meantime. The manifest naming the
+ * checkpoint is replaced last, so a crash while writing leaves the
+ * previous checkpoint in place. Only the log records committed after
+ * the timestamp of a checkpoint have to be replayed on top of it.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class Checkpoint {
+
+	private static final String MANIFEST = "checkpoint";
+
+	// A segment is written out once it has grown beyond this
+	private static final int SEGMENT_SIZE = 64 << 20;
+
+	private static final long NONE = -1;
+
+	private final Path directory;
+	private final OperationCodec codec;
+
+	// The timestamp of the checkpoint the manifest names, NONE if none.
+	// Its segments are never written again.
+	private long current = NONE;
+
+	Checkpoint(Path directory, OperationCodec codec) {
+		this.directory = directory;
+		this.codec = codec;
+	}
+
+	// Restores the resources from the last checkpoint written and returns
+	// its commit timestamp, 0 if there is none
+	public long restore(Map<ResourceId, Resource> resources) throws IOException {
+		Path manifest = directory.resolve(MANIFEST);
+
+		if (!Files.exists(manifest))
+			return 0;
+
+		long snapshot;
+		int segments;
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest))) {
+			snapshot = in.readLong();
+			segments = in.readInt();
+		}
+
+		current = snapshot;
+
+		for (int i = 0; i < segments; ++i) {
+			try (FileChannel channel = FileChannel.open(segmentPath(snapshot, i))) {
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY,
+						0,
+						channel.size()
+				);
+
+				restoreSegment(buffer, resources);
+			}
+		}
+
+		return snapshot;
+	}
+
+	private void restoreSegment(
+			ByteBuffer buffer,
+			Map<ResourceId, Resource> resources
+	) throws
+		IOException {
+
+		DataInputStream in = new DataInputStream(new BufferInputStream(buffer));
+
+		while (buffer.hasRemaining()) {
+			ResourceId rid = codec.readResourceId(in);
+			Resource resource = resources.get(rid);
+
+			if (resource == null)
+				throw new IOException("The checkpoint refers to an unknown resource " + rid);
+
+			((CheckpointSupport)resource).readState(in);
+		}
+	}
+
+	// Writes the resources as they were committed at the snapshot
+	// timestamp, which has to be kept readable until this returns.
+	// Returns false if the last checkpoint is as of the same timestamp,
+	// nothing is written then.
+	public boolean write(long snapshot, Collection<ResourceLock> resources) throws IOException {
+		if (snapshot == current)
+			return false;
+
+		Files.createDirectories(directory);
+
+		ByteArrayOutputStream segment = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(segment);
+		int segments = 0;
+
+		for (ResourceLock r: resources) {
+			Resource state = r.getVersion(snapshot);
+
+			if (state == null)
+				throw new IOException("The version of " + r.getResource().getId() +
+						" to checkpoint has been discarded");
+
+			codec.writeResourceId(r.getResource().getId(), out);
+			((CheckpointSupport)state).writeState(out);
+
+			if (segment.size() >= SEGMENT_SIZE) {
+				writeSegment(segmentPath(snapshot, segments++), segment);
+				segment.reset();
+			}
+		}
+
+		if (segment.size() > 0 || segments == 0)
+			writeSegment(segmentPath(snapshot, segments++), segment);
+
+		// The segments have to be found once the manifest names them
+		WriteAheadLog.forceDirectory(directory);
+
+		Path manifest = directory.resolve(MANIFEST);
+		Path next = directory.resolve(MANIFEST + ".next");
+
+		try (DataOutputStream manifestOut = new DataOutputStream(Files.newOutputStream(next))) {
+			manifestOut.writeLong(snapshot);
+			manifestOut.writeInt(segments);
+		}
+
+		try (FileChannel channel = FileChannel.open(next, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+
+		Files.move(next, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		WriteAheadLog.forceDirectory(directory);
+
+		current = snapshot;
+		deleteSegmentsExcept(snapshot);
+		return true;
+	}
+
+	private void writeSegment(Path path, ByteArrayOutputStream bytes) throws IOException {
+		try (FileChannel channel = FileChannel.open(
+				path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_WRITE,
+					0,
+					bytes.size()
+			);
+
+			buffer.put(bytes.toByteArray());
+			buffer.force();
+		}
+	}
+
+	private Path segmentPath(long snapshot, int segment) {
+		return directory.resolve("segment-" + snapshot + "-" + segment);
+	}
+
+	private void deleteSegmentsExcept(long snapshot) throws IOException {
+		String kept = "segment-" + snapshot + "-";
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+			for (Path file: files) {
+				if (!file.getFileName().toString().startsWith(kept))
+					Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	// Reads straight from the mapped pages
+	private static final class BufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		private BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining())
+				return -1;
+
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * What MT does about deadlocks when a transaction has to wait.
+ *
+ * Detection aborts a transaction only once a cycle has formed. The other
+ * policies prevent cycles by comparing the ages of the transactions
+ * instead, at the cost of aborting some that would not have deadlocked.
+ * A transaction aborted by a policy gets ActiveTransactionAborted,
+ * the same as a deadlock victim.
+ *
+ * An instance is used by a single transaction manager.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public abstract class DeadlockPolicy {
+
+	DeadlockPolicy() {
+	}
+
+	// Looks for a cycle every time a transaction has to wait,
+	// and aborts the youngest transaction on it
+	public static DeadlockPolicy detection() {
+		return new Detection();
+	}
+
+	// An older transaction aborts the younger ones it would wait for,
+	// a younger one waits for older ones
+	public static DeadlockPolicy woundWait() {
+		return new WoundWait();
+	}
+
+	// An older transaction waits for younger ones, a younger one
+	// aborts itself rather than wait for an older one
+	public static DeadlockPolicy waitDie() {
+		return new WaitDie();
+	}
+
+	// A transaction aborts itself rather than wait at all
+	public static DeadlockPolicy noWait() {
+		return new NoWait();
+	}
+
+	// Lets transactions wait, and looks for cycles among the waiting ones
+	// every so many milliseconds on a thread of its own
+	public static DeadlockPolicy periodicDetection(long intervalMillis) {
+		return new PeriodicDetection(intervalMillis);
+	}
+
+	// Called right after tr has been queued on the resource, may abort
+	// tr itself. The resource may have been handed over to tr already.
+	abstract void onBlocked(MT mt, Transaction tr, ResourceLock resource);
+
+	// Called when tr has been granted the resource without waiting
+	void onGranted(MT mt, Transaction tr, ResourceLock resource) {
+	}
+
+	void start(MT mt) {
+	}
+
+	void stop() {
+	}
+
+	private static final class Detection extends DeadlockPolicy {
+
+		@Override
+		void onBlocked(MT mt, Transaction tr, ResourceLock resource) {
+			mt.resolveDeadlocks(tr);
+		}
+
+	}
+
+	private static final class WoundWait extends DeadlockPolicy {
+
+		// tr gets ahead of older transactions only as a holder asking
+		// for an upgrade, or when the grant scheduler does not queue by
+		// age. Whoever gets ahead of tr later checks it the same way.
+		@Override
+		void onBlocked(MT mt, Transaction tr, ResourceLock resource) {
+			for (Transaction b: resource.blockersOf(tr)) {
+				if (b.compareTo(tr) > 0)
+					mt.abortVictim(b);
+			}
+
+			yieldToOlder(mt, tr, resource);
+		}
+
+		// With a grant scheduler not queueing by age, tr may have got
+		// ahead of older transactions without waiting
+		@Override
+		void onGranted(MT mt, Transaction tr, ResourceLock resource) {
+			yieldToOlder(mt, tr, resource);
+		}
+
+		private void yieldToOlder(MT mt, Transaction tr, ResourceLock resource) {
+			for (Transaction w: resource.blockedBy(tr)) {
+				if (w.compareTo(tr) < 0) {
+					mt.abortVictim(tr);
+					return;
+				}
+			}
+		}
+
+	}
+
+	private static final class WaitDie extends DeadlockPolicy {
+
+		@Override
+		void onBlocked(MT mt, Transaction tr, ResourceLock resource) {
+			for (Transaction b: resource.blockersOf(tr)) {
+				if (b.compareTo(tr) < 0) {
+					mt.abortVictim(tr);
+					return;
+				}
+			}
+
+			killYounger(mt, tr, resource);
+		}
+
+		// An older transaction may get ahead of the younger ones
+		// already waiting, which have to die now
+		@Override
+		void onGranted(MT mt, Transaction tr, ResourceLock resource) {
+			killYounger(mt, tr, resource);
+		}
+
+		private void killYounger(MT mt, Transaction tr, ResourceLock resource) {
+			for (Transaction w: resource.blockedBy(tr)) {
+				if (w.compareTo(tr) > 0)
+					mt.abortVictim(w);
+			}
+		}
+
+	}
+
+	private static final class NoWait extends DeadlockPolicy {
+
+		@Override
+		void onBlocked(MT mt, Transaction tr, ResourceLock resource) {
+			mt.abortVictim(tr);
+		}
+
+	}
+
+	private static final class PeriodicDetection extends DeadlockPolicy {
+
+		private final long intervalMillis;
+
+		// Transactions which may be waiting, the detector drops
+		// the ones which are not any more. Each is in at most once,
+		// as long as its detected flag is set.
+		private final Queue<Transaction> waiting = new ConcurrentLinkedQueue<Transaction>();
+
+		// The manager is only referred to weakly, so that the detector
+		// ends once the manager is gone, even if it was not closed
+		private WeakReference<MT> manager = null;
+
+		// Started once a transaction has had to wait
+		private volatile Thread detector = null;
+		private boolean stopped = false;
+
+		private PeriodicDetection(long intervalMillis) {
+			this.intervalMillis = intervalMillis;
+		}
+
+		@Override
+		void onBlocked(MT mt, Transaction tr, ResourceLock resource) {
+			if (tr.getDetected().compareAndSet(false, true))
+				waiting.add(tr);
+
+			if (detector == null)
+				startDetector();
+		}
+
+		@Override
+		synchronized void start(MT mt) {
+			if (manager != null)
+				throw new IllegalStateException("The policy is already in use");
+
+			manager = new WeakReference<MT>(mt);
+		}
+
+		private synchronized void startDetector() {
+			if (detector != null || stopped)
+				return;
+
+			detector = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (!Thread.currentThread().isInterrupted()) {
+							Thread.sleep(intervalMillis);
+
+							if (!detect())
+								return;
+						}
+					}
+					catch (InterruptedException e) {
+						// stopped
+					}
+				}
+			}, "deadlock-detector");
+
+			detector.setDaemon(true);
+			detector.start();
+		}
+
+		@Override
+		synchronized void stop() {
+			stopped = true;
+
+			if (detector != null)
+				detector.interrupt();
+		}
+
+		// false once the manager is gone. The manager is not held
+		// between the rounds.
+		private boolean detect() {
+			MT mt = manager.get();
+
+			if (mt == null)
+				return false;
+
+			detect(mt);
+			return true;
+		}
+
+		private void detect(MT mt) {
+			for (Iterator<Transaction> it = waiting.iterator(); it.hasNext(); ) {
+				Transaction tr = it.next();
+
+				if (tr.getWaitingOn() == null) {
+					it.remove();
+					tr.getDetected().set(false);
+
+					// Queued again in the meantime, the add may have come first
+					if (tr.getWaitingOn() != null && tr.getDetected().compareAndSet(false, true))
+						waiting.add(tr);
+				}
+				else if (!tr.isFlgAborted()) {
+					mt.resolveDeadlocks(tr);
+				}
+			}
+		}
+
+	}
+
+}
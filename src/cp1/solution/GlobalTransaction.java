@@ -0,0 +1,115 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A transaction spanning several managers, as seen by the managers.
+ *
+ * Each manager runs a branch of it, a transaction of its own with the
+ * age of the whole. The branches are aborted together, and deadlock
+ * detection treats them as a single transaction, following the edges
+ * of whichever branch is waiting.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class GlobalTransaction {
+
+	private final long startDate;
+	private final long serial;
+
+	private final List<Transaction> branches = new CopyOnWriteArrayList<Transaction>();
+
+	private volatile boolean isAborted = false;
+
+	// Set once every branch has prepared and the transaction is to
+	// commit, guarded by this together with setting isAborted
+	private boolean isCommitting = false;
+
+	GlobalTransaction(long startDate, long serial) {
+		this.startDate = startDate;
+		this.serial = serial;
+	}
+
+	public long getStartDate() {
+		return startDate;
+	}
+
+	public long getSerial() {
+		return serial;
+	}
+
+	public void addBranch(Transaction branch) {
+		branches.add(branch);
+
+		// Aborted while the branch was being started, or the branch
+		// was aborted before it joined
+		if (isAborted)
+			branch.abortBranch();
+		else if (branch.isFlgAborted())
+			abort();
+	}
+
+	// false - the transaction had already been aborted, or all of its
+	// branches have prepared. Prepared branches are not aborted any more.
+	public boolean abort() {
+		boolean first;
+
+		synchronized (this) {
+			if (isCommitting || isPrepared())
+				return false;
+
+			first = !isAborted;
+			isAborted = true;
+		}
+
+		for (Transaction branch: branches)
+			branch.abortBranch();
+
+		return first;
+	}
+
+	public boolean isAborted() {
+		return isAborted;
+	}
+
+	private boolean isPrepared() {
+		if (branches.isEmpty())
+			return false;
+
+		for (Transaction branch: branches) {
+			if (!branch.isPrepared())
+				return false;
+		}
+
+		return true;
+	}
+
+	// Called once every branch has prepared. false - the transaction
+	// has been aborted in the meantime and has to be rolled back.
+	public synchronized boolean decideCommit() {
+		if (!isAborted)
+			isCommitting = true;
+
+		return isCommitting;
+	}
+
+	// The branch queued on a resource, null if none is.
+	// A transaction waits in one manager at a time.
+	public Transaction getWaitingBranch() {
+		for (Transaction branch: branches) {
+			if (branch.getWaitingOn() != null)
+				return branch;
+		}
+
+		return null;
+	}
+
+}
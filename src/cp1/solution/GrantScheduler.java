@@ -0,0 +1,105 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The order in which the transactions waiting for a resource get it.
+ *
+ * A released resource is handed to the waiters at the head of the queue,
+ * as long as they can run together, so the order decides who goes first.
+ * The place of a transaction in the queue is fixed when it gets queued,
+ * which keeps the wait-for graph in line with the order of the grants.
+ * Holders asking for a stronger mode always go first, oldest first.
+ *
+ * An instance is used by a single transaction manager.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public abstract class GrantScheduler {
+
+	GrantScheduler() {
+	}
+
+	// The oldest transaction first
+	public static GrantScheduler fifo() {
+		return new Fifo();
+	}
+
+	// The transaction that others are queued behind the most first.
+	// Every transaction queued on a resource held by the waiter counts
+	// as if the waiter had been queued for boost longer, so a waiter
+	// blocking nobody is overtaken for a bounded time only.
+	public static GrantScheduler contentionAware(long boost, TimeUnit unit) {
+		if (boost < 0)
+			throw new IllegalArgumentException("Negative boost");
+
+		return new ContentionAware(unit.toNanos(boost));
+	}
+
+	// The order of the queue, null for the order of age
+	abstract Comparator<Transaction> order();
+
+	// Called by the thread of tr right before tr gets queued
+	void prioritize(Transaction tr) {
+	}
+
+	private static final class Fifo extends GrantScheduler {
+
+		@Override
+		Comparator<Transaction> order() {
+			return null;
+		}
+
+	}
+
+	private static final class ContentionAware extends GrantScheduler {
+
+		private final long boostNanos;
+
+		private ContentionAware(long boostNanos) {
+			this.boostNanos = boostNanos;
+		}
+
+		@Override
+		Comparator<Transaction> order() {
+			return BY_PRIORITY;
+		}
+
+		// The transactions queued on the resources tr holds count,
+		// on the groups too. Read without the latches,
+		// so the count may be off by the changes under way.
+		@Override
+		void prioritize(Transaction tr) {
+			long blocked = 0;
+
+			for (int i = 0; i < tr.getResourceCount(); ++i)
+				blocked += tr.getResource(i).getQueueLength();
+
+			tr.setGrantPriority(System.nanoTime() - blocked * boostNanos);
+		}
+
+		private static final Comparator<Transaction> BY_PRIORITY =
+				new Comparator<Transaction>() {
+			@Override
+			public int compare(Transaction tr1, Transaction tr2) {
+				// Subtracted, as nanoTime may overflow
+				long diff = tr1.getGrantPriority() - tr2.getGrantPriority();
+
+				if (diff != 0)
+					return diff < 0 ? -1 : 1;
+
+				return tr1.compareTo(tr2);
+			}
+		};
+
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values in power of two buckets.
+ * Recording a value costs two striped counter increments.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public final class Histogram {
+
+	// Bucket 0 counts zeros, bucket i values in [2^(i-1), 2^i)
+	private static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	Histogram() {
+		for (int i = 0; i < BUCKETS; ++i) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	void record(long value) {
+		if (value < 0)
+			value = 0;
+		
+		buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+		sum.add(value);
+	}
+
+	public long getCount() {
+		long count = 0;
+		
+		for (LongAdder b: buckets)
+			count += b.sum();
+		
+		return count;
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double)getSum() / count;
+	}
+
+	// The upper bound of the bucket holding the given fraction (0 to 1)
+	// of the smallest values, 0 if nothing has been recorded
+	public long getPercentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		
+		for (int i = 0; i < BUCKETS; ++i) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		
+		long rank = (long)Math.ceil(fraction * count);
+		long seen = 0;
+		
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += counts[i];
+			
+			if (seen >= rank && seen > 0)
+				return i == 0 ? 0 : (1L << i) - 1;
+		}
+		
+		return 0;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import cp1.base.ResourceOperation;
+
+/**
+ * The ways a transaction can hold a resource or a group of resources.
+ *
+ * A group is held in an intention mode by the transactions holding
+ * some of its members, in the matching mode. Holding the group itself
+ * in SHARED or EXCLUSIVE mode covers all of its members at once.
+ *
+ * A resource is held in COMMUTATIVE mode by the transactions running
+ * commutative operations on it. Such holders are compatible only if
+ * their operations are of the same class, which the resource checks.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+enum LockMode {
+	INTENTION_SHARED,
+	INTENTION_EXCLUSIVE,
+	SHARED,
+	COMMUTATIVE,
+	EXCLUSIVE;
+
+	public static LockMode of(ResourceOperation operation) {
+		if (operation.isReadOnly())
+			return SHARED;
+		else if (operation.getCommutativityClass() != null)
+			return COMMUTATIVE;
+		else
+			return EXCLUSIVE;
+	}
+
+	// Whether two different transactions may hold the resource
+	// in these modes at the same time
+	public boolean isCompatibleWith(LockMode other) {
+		switch (this) {
+			case INTENTION_SHARED:
+				return other != EXCLUSIVE && other != COMMUTATIVE;
+			case INTENTION_EXCLUSIVE:
+				return other == INTENTION_SHARED || other == INTENTION_EXCLUSIVE;
+			case SHARED:
+				return other == INTENTION_SHARED || other == SHARED;
+			case COMMUTATIVE:
+				return other == COMMUTATIVE;
+			default:
+				return false;
+		}
+	}
+
+	// Whether holding the resource in this mode is enough
+	// to also operate on it in the other mode
+	public boolean covers(LockMode other) {
+		switch (this) {
+			case INTENTION_SHARED:
+				return other == INTENTION_SHARED;
+			case INTENTION_EXCLUSIVE:
+			case SHARED:
+				return other == INTENTION_SHARED || other == this;
+			case COMMUTATIVE:
+				return other == this;
+			default:
+				return true;
+		}
+	}
+
+	// The weakest mode covering both. There is no mode for shared
+	// access to the whole group along with updates of some members,
+	// EXCLUSIVE is taken instead.
+	public LockMode combine(LockMode other) {
+		if (covers(other))
+			return this;
+		else if (other.covers(this))
+			return other;
+		else
+			return EXCLUSIVE;
+	}
+
+	// The mode to hold the groups of a resource held in this mode in
+	public LockMode intention() {
+		return this == SHARED || this == INTENTION_SHARED ?
+				INTENTION_SHARED : INTENTION_EXCLUSIVE;
+	}
+
+	// The mode to hold a group in to cover its members held in this mode
+	public LockMode covering() {
+		return this == SHARED || this == INTENTION_SHARED ?
+				SHARED : EXCLUSIVE;
+	}
+
+}
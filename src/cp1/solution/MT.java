@@ -7,15 +7,29 @@
  */
 package cp1.solution;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import cp1.base.LocalTimeProvider;
+import cp1.base.OperationCodec;
 import cp1.base.Resource;
 import cp1.base.ResourceId;
 import cp1.base.ResourceOperation;
@@ -23,7 +37,13 @@ import cp1.base.ResourceOperationException;
 import cp1.base.ActiveTransactionAborted;
 import cp1.base.NoActiveTransactionException;
 import cp1.base.AnotherTransactionActiveException;
-import cp1.base.TransactionManager;
+import cp1.base.LockWaitTimeoutException;
+import cp1.base.DetachedSupport;
+import cp1.base.GroupLockSupport;
+import cp1.base.SavepointSupport;
+import cp1.base.SnapshotSupport;
+import cp1.base.TimeoutSupport;
+import cp1.base.TransactionHandle;
 import cp1.base.UnknownResourceIdException;
 
 /**
@@ -31,35 +51,122 @@ import cp1.base.UnknownResourceIdException;
  * 
  * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
  */
-public class MT implements TransactionManager {
+public class MT implements
+		TimeoutSupport,
+		SavepointSupport,
+		GroupLockSupport,
+		SnapshotSupport,
+		DetachedSupport {
 	
-	private final Collection<Resource> resources;
+	// Built once at construction, read-only afterwards
+	private final Map<ResourceId, ResourceLock> resourceIndex;
+	private final Map<ResourceId, ResourceLock> groupIndex;
+	
+	// How many members of a group a transaction locks one by one
+	// before it tries to lock the group instead
+	private final int escalationThreshold;
 	private final LocalTimeProvider timeProvider;
 	
-	private static Transaction dummyTransaction = new Transaction();
-
 	private final ConcurrentMap<Thread, Transaction> activeTransactions;
-	private final ConcurrentMap<Resource, Transaction> whoHasAccess;
-	private final ConcurrentMap<Resource, Queue<Transaction>> whoWaitsOnResource;
 	
-	// Taken when modifying the structure of a waiting graph
-	private final Object deadlockResolveLock = new Object();
+	// Breaks ties between transactions started at the same time
+	private final TimestampOracle oracle;
+	
+	// Counts detached transactions too
+	private final LongAdder activeCount = new LongAdder();
+	
+	private final Statistics statistics = new Statistics();
+	
+	// null unless committed transactions are made durable
+	private final WriteAheadLog log;
+	
+	// null unless the undo logs of transactions are spilled to files
+	// once they grow beyond undoMemoryLimit operations
+	private final OperationCodec undoCodec;
+	private final int undoMemoryLimit;
+	
+	// null unless checkpoints are taken
+	private final Checkpoint checkpoint;
+	private final Object checkpointLock = new Object();
+	
+	// The timestamp of the last commit visible to snapshot reads,
+	// advanced under the commit lock
+	private final AtomicLong commitClock = new AtomicLong();
+	private final ReentrantLock commitLock = new ReentrantLock();
+	
+	// The number of the last log record appended, set under the commit
+	// lock before the commit clock is advanced past it
+	private volatile long commitRecord = 0;
+	
+	// How many snapshot transactions read at each timestamp
+	private final ConcurrentSkipListMap<Long, Integer> snapshots =
+			new ConcurrentSkipListMap<Long, Integer>();
+	
+	private static final long NO_SNAPSHOT = -1;
+	
+	// The snapshot of the checkpoint being written, its versions are
+	// never trimmed. Changed under the commit lock.
+	private volatile long pinnedSnapshot = NO_SNAPSHOT;
+	
+	private final DeadlockPolicy deadlockPolicy;
+	private final GrantScheduler grantScheduler;
+	private final AdmissionController admission;
 	
 	protected MT(
 			Collection<Resource> resources,
 			LocalTimeProvider timeProvider
 	) {
-		this.resources = resources;
-		this.timeProvider = timeProvider;
+		this(builder(resources, timeProvider), null, null, 0);
+	}
+	
+	// The checkpoint has already been restored and the log replayed
+	// on the resources, up to the given commit timestamp
+	MT(
+			Builder options,
+			WriteAheadLog log,
+			Checkpoint checkpoint,
+			long lastCommitTs
+	) {
+		Collection<Resource> resources = options.resources;
+		Map<ResourceId, ResourceId> groups = options.groups;
+		
+		this.timeProvider = options.timeProvider;
+		this.oracle = options.oracle;
+		this.deadlockPolicy = options.deadlockPolicy;
+		this.grantScheduler = options.grantScheduler;
+		this.admission = options.admission;
+		this.escalationThreshold = options.escalationThreshold;
+		this.log = log;
+		this.checkpoint = checkpoint;
+		this.undoCodec = options.undoCodec;
+		this.undoMemoryLimit = options.undoMemoryLimit;
 		
+		commitClock.set(lastCommitTs);
+		
+		resourceIndex = new HashMap<ResourceId, ResourceLock>(resources.size() * 2);
+		groupIndex = new HashMap<ResourceId, ResourceLock>();
 		activeTransactions = new ConcurrentHashMap<Thread, Transaction>();
-		whoHasAccess = new ConcurrentHashMap<Resource, Transaction>();
-		whoWaitsOnResource = new ConcurrentHashMap<Resource, Queue<Transaction>>();
+		
+		// The ids first, so that a group cannot take the id of a resource
+		for (Resource r: resources) {
+			resourceIndex.put(r.getId(), null);
+		}
 		
 		for (Resource r: resources) {
-			whoHasAccess.putIfAbsent(r, dummyTransaction);
-			whoWaitsOnResource.putIfAbsent(r, new PriorityQueue<Transaction>());
+			ResourceLock group = getGroupLock(groups.get(r.getId()), groups, 0);
+			resourceIndex.put(r.getId(), new ResourceLock(r, statistics, group, grantScheduler));
 		}
+		
+		statistics.setResources(resourceIndex.values());
+		deadlockPolicy.start(this);
+	}
+	
+	// The options of a manager, each left out keeps its default
+	public static Builder builder(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider
+	) {
+		return new Builder(resources, timeProvider);
 	}
 	
 	@Override
@@ -71,7 +178,7 @@ public class MT implements TransactionManager {
 			throw new AnotherTransactionActiveException();
 		
 		Thread current = Thread.currentThread();
-		Transaction tr = new Transaction(timeProvider.getTime());
+		Transaction tr = newTransaction();
 		
 		if (isTransactionActive())
 			activeTransactions.replace(current, tr);
@@ -79,7 +186,271 @@ public class MT implements TransactionManager {
 			activeTransactions.putIfAbsent(current, tr);
 	}
 	
+	@Override
+	public boolean tryStartTransaction(
+			long timeout,
+			TimeUnit unit
+	) throws
+		AnotherTransactionActiveException {
+		
+		if (isTransactionActive())
+			throw new AnotherTransactionActiveException();
+		
+		Transaction tr = new Transaction(
+				timeProvider.getTime(),
+				oracle.next()
+		);
+		
+		if (!admission.admit(tr, System.nanoTime() + unit.toNanos(timeout))) {
+			statistics.rejections.increment();
+			return false;
+		}
+		
+		started(tr);
+		activeTransactions.put(Thread.currentThread(), tr);
+		return true;
+	}
+	
+	@Override
+	public void startTransaction(
+			long timeout,
+			TimeUnit unit
+	) throws
+		AnotherTransactionActiveException {
+		
+		startTransaction();
+		tryGetActiveTransaction().setDeadline(System.nanoTime() + unit.toNanos(timeout));
+	}
+	
+	@Override
+	public void startSnapshotTransaction(
+	) throws
+		AnotherTransactionActiveException {
+		
+		if (isTransactionActive())
+			throw new AnotherTransactionActiveException();
+		
+		// Not counted as active, it never waits for anyone
+		Transaction tr = new Transaction(
+				timeProvider.getTime(),
+				oracle.next()
+		);
+		
+		startSnapshot(tr);
+		activeTransactions.put(Thread.currentThread(), tr);
+	}
+	
+	private void startSnapshot(Transaction tr) {
+		tr.setSnapshot(registerSnapshot());
+		
+		// Covers every commit up to the snapshot, if not a few more
+		tr.addReadRecord(commitRecord);
+	}
+	
+	private long registerSnapshot() {
+		while (true) {
+			long snapshot = commitClock.get();
+			snapshots.merge(snapshot, 1, Integer::sum);
+			
+			// A commit in the meantime may have trimmed the versions
+			// without seeing this snapshot
+			if (commitClock.get() == snapshot)
+				return snapshot;
+			
+			unregisterSnapshot(snapshot);
+		}
+	}
+	
+	private void unregisterSnapshot(long snapshot) {
+		snapshots.computeIfPresent(snapshot, (s, n) -> n == 1 ? null : n - 1);
+	}
+	
+	// Writes the resources as they were committed at this moment into a
+	// new checkpoint, while transactions go on. Once it has been written,
+	// the part of the log committed earlier is dropped, a restart only
+	// replays the rest. The manager has to have been created with
+	// a checkpoint.
+	public void checkpoint() throws IOException {
+		if (checkpoint == null)
+			throw new IllegalStateException("No checkpoint configured");
+		
+		synchronized (checkpointLock) {
+			long snapshot;
+			
+			// Pinned before any commit can trim the versions it reads
+			commitLock.lock();
+			try {
+				snapshot = commitClock.get();
+				pinnedSnapshot = snapshot;
+			}
+			finally {
+				commitLock.unlock();
+			}
+			
+			boolean written;
+			
+			try {
+				written = checkpoint.write(snapshot, resourceIndex.values());
+			}
+			finally {
+				pinnedSnapshot = NO_SNAPSHOT;
+			}
+			
+			if (written)
+				log.discardUpTo(snapshot);
+		}
+	}
+	
+	@Override
+	public TransactionHandle startDetachedTransaction() {
+		return new Handle(newTransaction());
+	}
+	
+	// A branch of a transaction of another manager, as old as that one.
+	// The global transaction is null until it spans several managers.
+	TransactionHandle startBranch(long startDate, long serial, GlobalTransaction global) {
+		return new Handle(newBranch(startDate, serial, global));
+	}
+	
+	// One whose waits all have to end by the deadline, in System.nanoTime()
+	TransactionHandle startBranch(
+			long startDate,
+			long serial,
+			GlobalTransaction global,
+			long deadline
+	) {
+		Transaction tr = newBranch(startDate, serial, global);
+		tr.setDeadline(deadline);
+		return new Handle(tr);
+	}
+	
+	// Makes a branch started alone part of the global transaction
+	void joinBranch(TransactionHandle branch, GlobalTransaction global) {
+		Transaction tr = ((Handle)branch).tr;
+		
+		tr.setGlobal(global);
+		global.addBranch(tr);
+	}
+	
+	private Transaction newBranch(long startDate, long serial, GlobalTransaction global) {
+		activeCount.increment();
+		
+		Transaction tr = new Transaction(startDate, serial, true);
+		spillUndoLog(tr);
+		
+		if (global != null) {
+			tr.setGlobal(global);
+			global.addBranch(tr);
+		}
+		
+		return tr;
+	}
+	
+	// Waits until the transaction is admitted, stamped before it waits
+	// so that the queued ones are not younger than those let in later
+	Transaction newTransaction() {
+		Transaction tr = new Transaction(
+				timeProvider.getTime(),
+				oracle.next()
+		);
+		
+		admission.admit(tr);
+		started(tr);
+		return tr;
+	}
+	
+	private void started(Transaction tr) {
+		activeCount.increment();
+		spillUndoLog(tr);
+	}
+	
+	private void spillUndoLog(Transaction tr) {
+		if (undoCodec != null)
+			tr.setUndoSpill(new UndoSpill(undoCodec, resourceIndex::get), undoMemoryLimit);
+	}
+	
+	
+	
+	public Statistics getStatistics() {
+		return statistics;
+	}
+	
+	// Stops the deadlock detector if there is one, and closes the log
+	// of a durable manager. No transaction may commit afterwards.
+	@Override
+	public void close() throws IOException {
+		deadlockPolicy.stop();
+		
+		if (log != null)
+			log.close();
+	}
+	
+	// null if there is no such resource
+	ResourceLock getResourceLock(ResourceId rid) {
+		return resourceIndex.get(rid);
+	}
+	
+	// Creates the group, and the groups it belongs to, when first asked
+	// for. The depth guards against groups belonging to themselves.
+	private ResourceLock getGroupLock(
+			ResourceId gid,
+			Map<ResourceId, ResourceId> groups,
+			int depth
+	) {
+		if (gid == null)
+			return null;
+		
+		ResourceLock group = groupIndex.get(gid);
+		
+		if (group != null)
+			return group;
+		
+		if (resourceIndex.containsKey(gid))
+			throw new IllegalArgumentException("Group " + gid + " is a resource");
+		if (depth > groups.size())
+			throw new IllegalArgumentException("Group " + gid + " belongs to itself");
+		
+		ResourceLock parent = getGroupLock(groups.get(gid), groups, depth + 1);
+		
+		group = new ResourceLock(new Resource(gid), statistics, parent, grantScheduler);
+		groupIndex.put(gid, group);
+		return group;
+	}
 	
+	@Override
+	public void lockGroupInCurrentTransaction(
+			ResourceId gid,
+			boolean forWriting
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		InterruptedException {
+		
+		Transaction currentTr = tryGetActiveTransaction();
+		
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+		
+		ResourceLock group = groupIndex.get(gid);
+		
+		if (group == null)
+			throw new UnknownResourceIdException(gid);
+		
+		if (currentTr.isFlgAborted())
+			throw new ActiveTransactionAborted();
+		
+		// Nothing is locked for reading a snapshot
+		if (currentTr.isSnapshot())
+			return;
+		
+		try {
+			acquire(currentTr, group, forWriting ? LockMode.EXCLUSIVE : LockMode.SHARED, null);
+		}
+		catch (LockWaitTimeoutException e) {
+			throw timedOut(currentTr);
+		}
+	}
 	
 	@Override
 	public void operateOnResourceInCurrentTransaction(
@@ -92,124 +463,679 @@ public class MT implements TransactionManager {
 		ResourceOperationException,
 		InterruptedException {
 		
-		if (!isTransactionActive())
+		Transaction currentTr = tryGetActiveTransaction();
+		
+		if (currentTr == null)
 			throw new NoActiveTransactionException();
 		
-		Resource resource = null;
+		try {
+			operate(currentTr, rid, operation);
+		}
+		catch (LockWaitTimeoutException e) {
+			throw timedOut(currentTr);
+		}
+	}
+	
+	@Override
+	public void operateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation,
+			long timeout,
+			TimeUnit unit
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException {
 		
-		for (Resource r: resources) {
-			if (r.getId() == rid) {
-				resource = r;
-				break;
-			}
+		Transaction currentTr = tryGetActiveTransaction();
+		
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+		
+		operate(currentTr, rid, operation, timeout, unit);
+	}
+	
+	private void operate(
+			Transaction currentTr,
+			ResourceId rid,
+			ResourceOperation operation,
+			long timeout,
+			TimeUnit unit
+	) throws
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException {
+		
+		currentTr.setCallDeadline(System.nanoTime() + unit.toNanos(timeout));
+		
+		try {
+			operate(currentTr, rid, operation);
+		}
+		finally {
+			currentTr.clearCallDeadline();
 		}
+	}
+	
+	// A call which cannot throw LockWaitTimeoutException aborts
+	// the transaction instead, once it has run out of time
+	private ActiveTransactionAborted timedOut(Transaction currentTr) {
+		currentTr.abort();
+		return new ActiveTransactionAborted();
+	}
+	
+	private void operate(
+			Transaction currentTr,
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException {
+		
+		ResourceLock resource = resourceIndex.get(rid);
 		
 		if (resource == null)
 			throw new UnknownResourceIdException(rid);
 		
-		if (isTransactionAborted()) {
+		if (currentTr.isFlgAborted()) {
+			throw new ActiveTransactionAborted();
+		}
+		
+		if (currentTr.isSnapshot()) {
+			readSnapshot(currentTr, resource, operation);
+			return;
+		}
+		
+		acquire(
+				currentTr,
+				resource,
+				resource.modeFor(operation),
+				operation.getCommutativityClass()
+		);
+		
+		currentTr.reserveOperation();
+		resource.apply(currentTr, operation);
+		currentTr.registerOperation(operation, resource);
+	}
+	
+	// A write, or a read of a resource which keeps no versions, fails
+	// as an operation would, the transaction goes on
+	private void readSnapshot(
+			Transaction currentTr,
+			ResourceLock resource,
+			ResourceOperation operation
+	) throws
+		ActiveTransactionAborted,
+		ResourceOperationException {
+		
+		if (!operation.isReadOnly() || !resource.isVersioned())
+			throw new ResourceOperationException(resource.getResource().getId(), operation);
+		
+		Resource state = resource.getVersion(currentTr.getSnapshot());
+		
+		if (state == null) {
+			currentTr.abort();
+			statistics.snapshotsTooOld.increment();
 			throw new ActiveTransactionAborted();
 		}
 		
+		operation.execute(state);
+	}
+	
+	@Override
+	public void operateOnResourcesInCurrentTransaction(
+			List<? extends Map.Entry<ResourceId, ResourceOperation>> operations
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException {
+		
 		Transaction currentTr = tryGetActiveTransaction();
-		assert currentTr != null;
 		
-		if (!currentTr.isUsingResource(resource)) {
-			synchronized (resource) {
-				while (whoHasAccess.getOrDefault(resource, dummyTransaction) != dummyTransaction ||
-						currentTr.isFlgLocked()) {
-					
-					Transaction hasResource = whoHasAccess.getOrDefault(resource, null);
-					assert hasResource != null;
-					
-					synchronized (deadlockResolveLock) {
-						currentTr.setWaitFor(hasResource);
-						
-						Transaction newest = currentTr;
-						Transaction nextTr = hasResource;
-						
-						while (nextTr != null && nextTr != currentTr) {
-							if (nextTr.compareTo(newest) > 0)
-								newest = nextTr;
-							
-							nextTr = nextTr.getNext();
-						}
-						
-						if (nextTr == currentTr) {
-							// deadlock found
-							newest.resolveDeadlock();
-						}
-					}
-					
-					Queue<Transaction> rQueue = whoWaitsOnResource.getOrDefault(resource, null);
-					assert rQueue != null;
-					
-					rQueue.add(currentTr);
-					currentTr.lock();
-					
-					resource.wait();
-				}
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+		
+		try {
+			if (currentTr.isSnapshot()) {
+				// Nothing is locked, so there is no order to keep
+				for (Map.Entry<ResourceId, ResourceOperation> op: operations)
+					operate(currentTr, op.getKey(), op.getValue());
+			}
+			else {
+				operateBatch(currentTr, operations);
+			}
+		}
+		catch (LockWaitTimeoutException e) {
+			throw timedOut(currentTr);
+		}
+	}
+	
+	private void operateBatch(
+			Transaction currentTr,
+			List<? extends Map.Entry<ResourceId, ResourceOperation>> operations
+	) throws
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException {
+		
+		// The strongest mode needed, per resource, in the order of ids
+		SortedMap<ResourceId, LockMode> modes = new TreeMap<ResourceId, LockMode>();
+		
+		// The class of the operations needing COMMUTATIVE mode
+		Map<ResourceId, Object> commutativities = new HashMap<ResourceId, Object>();
+		
+		for (Map.Entry<ResourceId, ResourceOperation> op: operations) {
+			ResourceId rid = op.getKey();
+			ResourceLock resource = resourceIndex.get(rid);
+			
+			if (resource == null)
+				throw new UnknownResourceIdException(rid);
+			
+			LockMode mode = resource.modeFor(op.getValue());
+			Object commutativity = op.getValue().getCommutativityClass();
+			LockMode before = modes.get(rid);
+			
+			if (before == LockMode.COMMUTATIVE && mode == LockMode.COMMUTATIVE &&
+					!commutativity.equals(commutativities.get(rid)))
+				mode = LockMode.EXCLUSIVE;
+			
+			if (before == null) {
+				modes.put(rid, mode);
+				commutativities.put(rid, commutativity);
+			}
+			else {
+				modes.put(rid, before.combine(mode));
+			}
+		}
+		
+		if (currentTr.isFlgAborted()) {
+			throw new ActiveTransactionAborted();
+		}
+		
+		for (Map.Entry<ResourceId, LockMode> m: modes.entrySet()) {
+			acquire(
+					currentTr,
+					resourceIndex.get(m.getKey()),
+					m.getValue(),
+					commutativities.get(m.getKey())
+			);
+		}
+		
+		int done = 0;
+		
+		try {
+			for (Map.Entry<ResourceId, ResourceOperation> op: operations) {
+				ResourceLock resource = resourceIndex.get(op.getKey());
+				ResourceOperation operation = op.getValue();
 				
-				whoHasAccess.replace(resource, currentTr);
-				currentTr.addResource(resource);
+				currentTr.reserveOperation();
+				resource.apply(currentTr, operation);
+				currentTr.registerOperation(operation, resource);
+				++done;
+			}
+		}
+		catch (ResourceOperationException | RuntimeException e) {
+			// The batch is applied as a whole or not at all,
+			// the resources stay acquired though
+			for (; done > 0; --done) {
+				currentTr.undoLastOperation();
+				statistics.undoSteps.increment();
 			}
+			
+			throw e;
 		}
+	}
+	
+	// Makes sure currentTr holds the resource, or one of its groups,
+	// in a mode covering the requested one, waiting for it if necessary.
+	// The groups are held in the matching intention mode first.
+	// The class is that of the operations to run in COMMUTATIVE mode.
+	private void acquire(
+			Transaction currentTr,
+			ResourceLock resource,
+			LockMode mode,
+			Object commutativity
+	) throws
+		ActiveTransactionAborted,
+		InterruptedException,
+		LockWaitTimeoutException {
 		
-		operation.execute(resource);
-		currentTr.registerOperation(operation, resource);
+		LockMode held = currentTr.getHeldMode(resource);
+		
+		// Operations of another class do not commute with the ones run
+		if (held == LockMode.COMMUTATIVE && mode == LockMode.COMMUTATIVE &&
+				!resource.isCommutingAs(currentTr, commutativity))
+			mode = LockMode.EXCLUSIVE;
+		
+		if (held != null && held.covers(mode))
+			return;
+		
+		ResourceLock group = resource.getParent();
+		
+		if (group != null) {
+			if (isCovered(currentTr, group, mode))
+				return;
+			
+			acquire(currentTr, group, mode.intention(), null);
+			
+			// One of the groups above may have been escalated meanwhile
+			if (isCovered(currentTr, group, mode))
+				return;
+			
+			if (currentTr.getMemberCount(group) >= escalationThreshold &&
+					escalate(currentTr, group, mode))
+				return;
+		}
+		
+		if (held != null)
+			mode = held.combine(mode);
+		
+		if (mode != LockMode.COMMUTATIVE)
+			commutativity = null;
+		
+		if (resource.tryAcquireOrEnqueue(currentTr, mode, commutativity)) {
+			onGranted(currentTr, resource);
+		}
+		else {
+			long queuedAt = System.nanoTime();
+			
+			try {
+				onBlocked(currentTr, resource);
+				resource.awaitGrant(currentTr);
+			}
+			finally {
+				long waited = System.nanoTime() - queuedAt;
+				
+				resource.recordWait(waited);
+				currentTr.addWaitNanos(waited);
+			}
+		}
+		
+		currentTr.addResource(resource, mode);
+		
+		// A group held as a whole covers the members held on their own
+		if ((mode == LockMode.SHARED || mode == LockMode.EXCLUSIVE) &&
+				currentTr.getMemberCount(resource) > 0)
+			releaseMembers(currentTr, resource);
+		
+		if (currentTr.isFlgAborted())
+			throw new ActiveTransactionAborted();
+	}
+	
+	// Whether currentTr holds one of the groups in a mode
+	// that lets it operate on all of their members
+	private static boolean isCovered(
+			Transaction currentTr,
+			ResourceLock group,
+			LockMode mode
+	) {
+		for (; group != null; group = group.getParent()) {
+			LockMode held = currentTr.getHeldMode(group);
+			
+			if ((held == LockMode.SHARED || held == LockMode.EXCLUSIVE) && held.covers(mode))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	// Locks the whole group, which currentTr holds in an intention mode,
+	// so that it covers the mode requested for a member. The mode is an
+	// intention one when a subgroup is being locked, the group is locked
+	// in the matching mode then. Gives up rather than wait for it,
+	// the members are locked one by one then.
+	private boolean escalate(
+			Transaction currentTr,
+			ResourceLock group,
+			LockMode mode
+	) {
+		LockMode target = currentTr.getHeldMode(group).combine(mode.covering());
+		
+		// Members are only released under a lock covering them
+		if (target != LockMode.SHARED && target != LockMode.EXCLUSIVE)
+			return false;
+		
+		if (!group.tryAcquire(currentTr, target))
+			return false;
+		
+		currentTr.addResource(group, target);
+		releaseMembers(currentTr, group);
+		
+		statistics.escalations.increment();
+		return true;
+	}
+	
+	private static final Comparator<ResourceLock> MEMBERS_FIRST =
+			new Comparator<ResourceLock>() {
+		@Override
+		public int compare(ResourceLock r1, ResourceLock r2) {
+			return Integer.compare(r2.getDepth(), r1.getDepth());
+		}
+	};
+	
+	private static void releaseMembers(Transaction currentTr, ResourceLock group) {
+		for (ResourceLock member: currentTr.removeMembers(group))
+			member.release(currentTr);
+	}
+	
+	// Called right after currentTr has been queued on the resource
+	void onBlocked(Transaction currentTr, ResourceLock resource) {
+		deadlockPolicy.onBlocked(this, currentTr, resource);
+	}
+	
+	// Called when currentTr has been granted the resource without waiting
+	void onGranted(Transaction currentTr, ResourceLock resource) {
+		deadlockPolicy.onGranted(this, currentTr, resource);
+	}
+	
+	void abortVictim(Transaction victim) {
+		if (victim.resolveDeadlock())
+			statistics.victims.increment();
+	}
+	
+	// Aborts victims until no cycle goes through currentTr
+	void resolveDeadlocks(Transaction currentTr) {
+		// A cycle is not longer than the number of transactions.
+		// There may be several cycles going through currentTr,
+		// aborted transactions are skipped when looking further.
+		Transaction victim;
+		
+		do {
+			victim = WaitForGraph.findVictim(
+					currentTr,
+					getMaxCycleLength()
+			);
+			
+			if (victim != null) {
+				// deadlock found
+				statistics.deadlocks.increment();
+				abortVictim(victim);
+			}
+		} while (victim != null && victim != currentTr);
+	}
+	
+	// No more transactions than are active can be on a cycle
+	int getMaxCycleLength() {
+		return activeCount.intValue();
+	}
+	
+	// Members before their groups, so that nobody can lock a group
+	// as a whole while a member of it is still held
+	private static void unlockResources(Transaction currentTr) {
+		int maxDepth = 0;
+		
+		for (int i = 0; i < currentTr.getResourceCount(); ++i)
+			maxDepth = Math.max(maxDepth, currentTr.getResource(i).getDepth());
+		
+		for (int depth = maxDepth; depth >= 0; --depth) {
+			for (int i = 0; i < currentTr.getResourceCount(); ++i) {
+				ResourceLock r = currentTr.getResource(i);
+				
+				if (r.getDepth() == depth)
+					r.release(currentTr);
+			}
+		}
+	}
+	
+	private void removeActiveTransaction() {
+		Transaction currentTr = tryGetActiveTransaction();
+		activeTransactions.remove(Thread.currentThread(), currentTr);
 	}
 	
-	private void unlockResource(Resource r) {
-		synchronized (r) {
-			whoHasAccess.replace(r, dummyTransaction);
+	@Override
+	public void commitCurrentTransaction(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+		
+		Transaction currentTr = tryGetActiveTransaction();
+		
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+		
+		long record = commit(currentTr);
+		removeActiveTransaction();
+		awaitDurable(record);
+	}
+	
+	// Returns the number of the log record to pass to awaitDurable,
+	// the transaction is over by then
+	long commit(
+			Transaction currentTr
+	) throws
+		ActiveTransactionAborted {
+		
+		if (currentTr.isFlgAborted())
+			throw new ActiveTransactionAborted();
+		
+		long record = 0;
+		
+		if (currentTr.isSnapshot()) {
+			unregisterSnapshot(currentTr.getSnapshot());
+			record = currentTr.getReadRecord();
+		}
+		else {
+			if (log != null)
+				addReadRecords(currentTr);
 			
-			Queue<Transaction> rQueue = whoWaitsOnResource.getOrDefault(r, null);
-			assert rQueue != null;
+			record = Math.max(publish(currentTr), currentTr.getReadRecord());
 			
-			if (!rQueue.isEmpty()) {
-				Transaction oldestTr = rQueue.remove();
+			if (currentTr.hasEscrowOperations())
+				settleEscrow(currentTr);
+			
+			unlockResources(currentTr);
+			currentTr.closeUndoSpill();
+			activeCount.decrement();
+			release(currentTr, true);
+		}
+		
+		statistics.commits.increment();
+		return record;
+	}
+	
+	// The resources are released before the record is on the disk.
+	// Whoever gets them next is logged after it, so cannot outlive it,
+	// and waits for it before returning what it has read.
+	void awaitDurable(long record) {
+		if (record != 0)
+			log.awaitDurable(record);
+	}
+	
+	// The records of the last changes of the resources held,
+	// whether written or only read by currentTr
+	private static void addReadRecords(Transaction currentTr) {
+		for (int i = 0; i < currentTr.getResourceCount(); ++i)
+			currentTr.addReadRecord(currentTr.getResource(i).getLastRecord());
+	}
+	
+	private static void settleEscrow(Transaction currentTr) {
+		for (int i = 0; i < currentTr.getOperationCount(); ++i)
+			currentTr.getOperationResource(i).settle(currentTr.getOperation(i));
+	}
+	
+	// Makes the changes of currentTr visible to snapshot transactions,
+	// all at once, and appends them to the log under the same commit
+	// timestamp. Returns the number of the log record, 0 if none.
+	// Called while the resources are still held.
+	private long publish(Transaction currentTr) {
+		byte[] logged = log == null ? null : log.encode(currentTr);
+		List<ResourceLock> changed = null;
+		List<Resource> states = null;
+		
+		for (int i = 0; i < currentTr.getResourceCount(); ++i) {
+			ResourceLock r = currentTr.getResource(i);
+			
+			if (r.isVersioned() && currentTr.getHeldMode(r) == LockMode.EXCLUSIVE) {
+				if (changed == null) {
+					changed = new ArrayList<ResourceLock>();
+					states = new ArrayList<Resource>();
+				}
 				
-				synchronized (deadlockResolveLock) {
-					oldestTr.setWaitFor(null);
+				changed.add(r);
+				states.add(r.getResource().copyForSnapshot());
+			}
+		}
+		
+		if (currentTr.hasCoveredOperations()) {
+			// Changed under a lock on their group
+			Set<ResourceLock> seen = Collections.newSetFromMap(
+					new IdentityHashMap<ResourceLock, Boolean>()
+			);
+			
+			for (int i = 0; i < currentTr.getOperationCount(); ++i) {
+				ResourceLock r = currentTr.getOperationResource(i);
+				
+				if (!r.isVersioned() || currentTr.getOperation(i).isReadOnly() ||
+						currentTr.getHeldMode(r) != null || !seen.add(r))
+					continue;
+				
+				if (changed == null) {
+					changed = new ArrayList<ResourceLock>();
+					states = new ArrayList<Resource>();
 				}
 				
-				oldestTr.unlock();
-				r.notifyAll();
+				changed.add(r);
+				states.add(r.getResource().copyForSnapshot());
 			}
 		}
+		
+		if (changed == null && logged == null)
+			return 0;
+		
+		long record = 0;
+		
+		commitLock.lock();
+		try {
+			long commitTs = commitClock.get() + 1;
+			
+			if (logged != null) {
+				record = log.append(logged, commitTs);
+				commitRecord = record;
+				
+				// Members written under a lock on their group are
+				// read under an intention lock on it
+				for (int i = 0; i < currentTr.getResourceCount(); ++i) {
+					ResourceLock r = currentTr.getResource(i);
+					LockMode mode = currentTr.getHeldMode(r);
+					
+					if (mode == LockMode.EXCLUSIVE || mode == LockMode.COMMUTATIVE)
+						r.setLastRecord(record);
+				}
+			}
+			
+			if (changed != null) {
+				for (int i = 0; i < changed.size(); ++i)
+					changed.get(i).addVersion(states.get(i), commitTs);
+			}
+			
+			commitClock.set(commitTs);
+			
+			if (changed != null) {
+				// Registered after this point, a snapshot reads at commitTs
+				Map.Entry<Long, Integer> oldest = snapshots.firstEntry();
+				
+				for (ResourceLock r: changed) {
+					r.trimVersions(
+							oldest == null ? commitTs : oldest.getKey(),
+							pinnedSnapshot
+					);
+				}
+			}
+		}
+		finally {
+			commitLock.unlock();
+		}
+		
+		return record;
 	}
 	
-	private void unlockCurrentResources() {
+	@Override
+	public void restartCurrentTransaction(
+	) throws
+		NoActiveTransactionException {
+		
 		Transaction currentTr = tryGetActiveTransaction();
-		Iterator<Resource> it = currentTr.getResourcesIterator();
-		// tutaj i tam wyzej w unlockresource, mozliwe ze trzeba bedzie zalozyc locka na transakcje
-		// wynika to z tego, ze zmieniamy kolekcje resourcow. no ale moze iterator ogarnie, nie wiem
-		// raczej nie
 		
-		while (it.hasNext()) {
-			Resource r = it.next();
-			unlockResource(r);
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+		
+		rollback(currentTr);
+		
+		Transaction tr = new Transaction(currentTr);
+		
+		// A snapshot is not waited for, it only needs to be fresh
+		if (currentTr.isSnapshot()) {
+			startSnapshot(tr);
+		}
+		else {
+			admission.admit(tr);
+			started(tr);
 		}
+		
+		activeTransactions.put(Thread.currentThread(), tr);
+		statistics.restarts.increment();
 	}
 	
-	private void removeActiveTransaction() {
+	@Override
+	public int setSavepointInCurrentTransaction(
+	) throws
+		NoActiveTransactionException {
+		
 		Transaction currentTr = tryGetActiveTransaction();
-		activeTransactions.remove(Thread.currentThread(), currentTr);
+		
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+		
+		return currentTr.setSavepoint();
 	}
 	
 	@Override
-	public void commitCurrentTransaction(
+	public void rollbackCurrentTransactionToSavepoint(
+			int savepoint
 	) throws
 		NoActiveTransactionException,
 		ActiveTransactionAborted {
 		
-		if (!isTransactionActive())
+		Transaction currentTr = tryGetActiveTransaction();
+		
+		if (currentTr == null)
 			throw new NoActiveTransactionException();
-		if (isTransactionAborted())
+		
+		if (savepoint < 0 || savepoint >= currentTr.getSavepointCount())
+			throw new IllegalArgumentException("No savepoint " + savepoint);
+		
+		// A deadlock victim has to give up everything it holds
+		if (currentTr.isFlgAborted())
 			throw new ActiveTransactionAborted();
 		
-		unlockCurrentResources();
-		removeActiveTransaction();
+		while (currentTr.getOperationCount() > currentTr.getSavepointOperations(savepoint)) {
+			currentTr.undoLastOperation();
+			statistics.undoSteps.increment();
+		}
+		
+		// Resources acquired before it stay held in the mode they have
+		// been upgraded to since
+		List<ResourceLock> acquired = currentTr.removeAcquiredAfter(savepoint);
+		
+		// Members before their groups, as on commit
+		acquired.sort(MEMBERS_FIRST);
+		
+		for (ResourceLock r: acquired)
+			r.release(currentTr);
+		
+		currentTr.discardSavepointsAfter(savepoint);
+		statistics.partialRollbacks.increment();
 	}
 	
 	@Override
@@ -220,19 +1146,38 @@ public class MT implements TransactionManager {
 			return;
 		}
 		
+		rollback(currentTr);
+		removeActiveTransaction();
+	}
+	
+	void rollback(Transaction currentTr) {
+		if (currentTr.isSnapshot()) {
+			unregisterSnapshot(currentTr.getSnapshot());
+			statistics.rollbacks.increment();
+			return;
+		}
+		
 		while (!currentTr.isStackTraceEmpty()) {
-			Pair<ResourceOperation, Resource> trace = currentTr.stackTracePop();
-			
-			ResourceOperation operation = trace.first();
-			Resource resource = trace.second();
+			ResourceLock resource = currentTr.undoLastOperation();
+			statistics.undoSteps.increment();
 			
-			operation.undo(resource);
-			
-			if (currentTr.rollbackResource(resource))
-				unlockResource(resource);
+			// The last action using this resource has been rollbacked
+			if (currentTr.removeIfUnused(resource))
+				resource.release(currentTr);
 		}
 		
-		removeActiveTransaction();
+		// Resources acquired without a successful operation on them
+		unlockResources(currentTr);
+		currentTr.closeUndoSpill();
+		activeCount.decrement();
+		release(currentTr, false);
+		statistics.rollbacks.increment();
+	}
+	
+	// Branches are admitted by the manager of the whole transaction
+	private void release(Transaction currentTr, boolean committed) {
+		if (!currentTr.isBranch())
+			admission.release(currentTr, committed);
 	}
 	
 	private Transaction tryGetActiveTransaction() {
@@ -264,4 +1209,207 @@ public class MT implements TransactionManager {
 		return result;
 	}
 	
+	// Defaults to deadlock detection, first come first served grants,
+	// no limit on the running transactions, no groups and undo logs
+	// kept on the heap. The policies given are used by the one
+	// manager built.
+	public static final class Builder {
+		
+		final Collection<Resource> resources;
+		final LocalTimeProvider timeProvider;
+		
+		TimestampOracle oracle = TimestampOracle.counter();
+		DeadlockPolicy deadlockPolicy = DeadlockPolicy.detection();
+		GrantScheduler grantScheduler = GrantScheduler.fifo();
+		AdmissionController admission = AdmissionController.unlimited();
+		
+		Map<ResourceId, ResourceId> groups =
+				Collections.<ResourceId, ResourceId>emptyMap();
+		int escalationThreshold = Integer.MAX_VALUE;
+		
+		OperationCodec undoCodec = null;
+		int undoMemoryLimit = 0;
+		
+		private Builder(
+				Collection<Resource> resources,
+				LocalTimeProvider timeProvider
+		) {
+			this.resources = resources;
+			this.timeProvider = timeProvider;
+		}
+		
+		// Orders the transactions started at the same local time
+		public Builder oracle(TimestampOracle oracle) {
+			this.oracle = oracle;
+			return this;
+		}
+		
+		public Builder deadlockPolicy(DeadlockPolicy deadlockPolicy) {
+			this.deadlockPolicy = deadlockPolicy;
+			return this;
+		}
+		
+		// Who gets a released resource first
+		public Builder grantScheduler(GrantScheduler grantScheduler) {
+			this.grantScheduler = grantScheduler;
+			return this;
+		}
+		
+		// Queues the starts beyond a limit
+		public Builder admission(AdmissionController admission) {
+			this.admission = admission;
+			return this;
+		}
+		
+		// The groups map resources and groups to the groups they belong
+		// to, group ids differ from resource ids. A transaction locking
+		// escalationThreshold members of a group one by one tries to lock
+		// the group instead.
+		public Builder groups(
+				Map<ResourceId, ResourceId> groups,
+				int escalationThreshold
+		) {
+			this.groups = groups;
+			this.escalationThreshold = escalationThreshold;
+			return this;
+		}
+		
+		// Keeps at most memoryLimit operations of the undo log of
+		// a transaction on the heap, the older ones are written by
+		// the codec to a temporary file and read back when undone
+		public Builder undoSpill(OperationCodec codec, int memoryLimit) {
+			if (memoryLimit < 1)
+				throw new IllegalArgumentException("The undo log needs room for an operation");
+			
+			this.undoCodec = codec;
+			this.undoMemoryLimit = memoryLimit;
+			return this;
+		}
+		
+		public MT build() {
+			return new MT(this, null, null, 0);
+		}
+		
+	}
+	
+	// A transaction driven through a handle rather than by a thread,
+	// it may be passed between threads but not used by two at once
+	private final class Handle implements TransactionHandle {
+		
+		// null once the transaction has finished
+		private Transaction tr;
+		
+		private Handle(Transaction tr) {
+			this.tr = tr;
+		}
+		
+		@Override
+		public void operateOnResource(
+				ResourceId rid,
+				ResourceOperation operation
+		) throws
+			NoActiveTransactionException,
+			UnknownResourceIdException,
+			ActiveTransactionAborted,
+			ResourceOperationException,
+			InterruptedException {
+			
+			if (tr == null)
+				throw new NoActiveTransactionException();
+			
+			try {
+				operate(tr, rid, operation);
+			}
+			catch (LockWaitTimeoutException e) {
+				throw timedOut(tr);
+			}
+		}
+		
+		@Override
+		public void operateOnResource(
+				ResourceId rid,
+				ResourceOperation operation,
+				long timeout,
+				TimeUnit unit
+		) throws
+			NoActiveTransactionException,
+			UnknownResourceIdException,
+			ActiveTransactionAborted,
+			ResourceOperationException,
+			InterruptedException,
+			LockWaitTimeoutException {
+			
+			if (tr == null)
+				throw new NoActiveTransactionException();
+			
+			operate(tr, rid, operation, timeout, unit);
+		}
+		
+		@Override
+		public void operateOnResources(
+				List<? extends Map.Entry<ResourceId, ResourceOperation>> operations
+		) throws
+			NoActiveTransactionException,
+			UnknownResourceIdException,
+			ActiveTransactionAborted,
+			ResourceOperationException,
+			InterruptedException {
+			
+			if (tr == null)
+				throw new NoActiveTransactionException();
+			
+			try {
+				operateBatch(tr, operations);
+			}
+			catch (LockWaitTimeoutException e) {
+				throw timedOut(tr);
+			}
+		}
+		
+		@Override
+		public boolean prepare(
+		) throws
+			NoActiveTransactionException {
+			
+			if (tr == null)
+				throw new NoActiveTransactionException();
+			
+			return tr.prepare();
+		}
+		
+		@Override
+		public void commit(
+		) throws
+			NoActiveTransactionException,
+			ActiveTransactionAborted {
+			
+			if (tr == null)
+				throw new NoActiveTransactionException();
+			
+			long record = MT.this.commit(tr);
+			tr = null;
+			awaitDurable(record);
+		}
+		
+		@Override
+		public void rollback() {
+			if (tr == null)
+				return;
+			
+			MT.this.rollback(tr);
+			tr = null;
+		}
+		
+		@Override
+		public boolean isActive() {
+			return tr != null;
+		}
+		
+		@Override
+		public boolean isAborted() {
+			return tr != null && tr.isFlgAborted();
+		}
+		
+	}
+	
 }
@@ -0,0 +1,240 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TransactionManager;
+import cp1.base.UnknownResourceIdException;
+
+/**
+ * A transaction manager for workloads with few conflicts.
+ *
+ * Nothing is locked while a transaction runs. A read-only operation
+ * runs right away and the version of the resource it has seen is
+ * remembered. Any other operation, and any operation on a resource the
+ * transaction is going to change, is put in the intent log instead.
+ *
+ * At commit the resources used are latched in the order of their ids,
+ * the remembered versions are validated and the intent log is run.
+ * If a resource read has been changed in the meantime or an operation
+ * of the log fails, the transaction is aborted and has to be rolled
+ * back like in MT. There is nothing to undo at rollback then.
+ *
+ * Reads of different resources may see the states of different
+ * moments. Such a transaction never commits, but it runs until then.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class OptimisticMT implements TransactionManager {
+
+	// Built once at construction, read-only afterwards
+	private final Map<ResourceId, ResourceVersion> resourceIndex;
+
+	private final ConcurrentMap<Thread, OptimisticTransaction> activeTransactions =
+			new ConcurrentHashMap<Thread, OptimisticTransaction>();
+
+	private final Statistics statistics = new Statistics();
+
+	protected OptimisticMT(Collection<Resource> resources) {
+		resourceIndex = new HashMap<ResourceId, ResourceVersion>(resources.size() * 2);
+
+		for (Resource r: resources) {
+			resourceIndex.put(r.getId(), new ResourceVersion(r));
+		}
+
+		statistics.setResources(Collections.<ResourceLock>emptyList());
+	}
+
+	public Statistics getStatistics() {
+		return statistics;
+	}
+
+	@Override
+	public void startTransaction(
+	) throws
+		AnotherTransactionActiveException {
+
+		if (activeTransactions.putIfAbsent(
+				Thread.currentThread(),
+				new OptimisticTransaction()) != null) {
+			throw new AnotherTransactionActiveException();
+		}
+	}
+
+	@Override
+	public void operateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException {
+
+		OptimisticTransaction currentTr = activeTransactions.get(Thread.currentThread());
+
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+
+		ResourceVersion resource = resourceIndex.get(rid);
+
+		if (resource == null)
+			throw new UnknownResourceIdException(rid);
+
+		if (currentTr.isFlgAborted())
+			throw new ActiveTransactionAborted();
+
+		// A read has to see the changes of the transaction itself
+		if (!operation.isReadOnly() || currentTr.hasWritten(resource)) {
+			currentTr.addIntent(operation, resource);
+			return;
+		}
+
+		long version;
+
+		resource.lock();
+		try {
+			version = resource.getVersion();
+			operation.execute(resource.getResource());
+		}
+		finally {
+			resource.unlock();
+		}
+
+		// The resource has changed since the transaction read it,
+		// validation at commit is bound to fail
+		if (!currentTr.recordRead(resource, version)) {
+			currentTr.abort();
+			statistics.conflicts.increment();
+			throw new ActiveTransactionAborted();
+		}
+	}
+
+	@Override
+	public void commitCurrentTransaction(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+
+		OptimisticTransaction currentTr = activeTransactions.get(Thread.currentThread());
+
+		if (currentTr == null)
+			throw new NoActiveTransactionException();
+
+		if (currentTr.isFlgAborted())
+			throw new ActiveTransactionAborted();
+
+		boolean committed;
+
+		if (currentTr.getIntentCount() == 0)
+			committed = isValid(currentTr);
+		else
+			committed = validateAndApply(currentTr);
+
+		if (!committed) {
+			currentTr.abort();
+			throw new ActiveTransactionAborted();
+		}
+
+		activeTransactions.remove(Thread.currentThread());
+		statistics.commits.increment();
+	}
+
+	private boolean isValid(OptimisticTransaction currentTr) {
+		for (Map.Entry<ResourceVersion, Long> read: currentTr.getReadVersions().entrySet()) {
+			if (read.getKey().getVersion() != read.getValue()) {
+				statistics.conflicts.increment();
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean validateAndApply(OptimisticTransaction currentTr) {
+		// Latched in the order of ids, so commits never deadlock
+		SortedMap<ResourceId, ResourceVersion> used = new TreeMap<ResourceId, ResourceVersion>();
+
+		for (ResourceVersion r: currentTr.getReadVersions().keySet())
+			used.put(r.getResource().getId(), r);
+		for (ResourceVersion r: currentTr.getWritten())
+			used.put(r.getResource().getId(), r);
+
+		for (ResourceVersion r: used.values())
+			r.lock();
+
+		try {
+			if (!isValid(currentTr))
+				return false;
+
+			int done = 0;
+
+			try {
+				for (; done < currentTr.getIntentCount(); ++done) {
+					ResourceVersion r = currentTr.getIntentResource(done);
+					currentTr.getIntent(done).execute(r.getResource());
+				}
+			}
+			catch (ResourceOperationException | RuntimeException e) {
+				// Applied as a whole or not at all
+				while (done > 0) {
+					--done;
+					ResourceVersion r = currentTr.getIntentResource(done);
+					currentTr.getIntent(done).undo(r.getResource());
+					statistics.undoSteps.increment();
+				}
+
+				return false;
+			}
+
+			for (ResourceVersion r: currentTr.getWritten())
+				r.bumpVersion();
+
+			return true;
+		}
+		finally {
+			for (ResourceVersion r: used.values())
+				r.unlock();
+		}
+	}
+
+	@Override
+	public void rollbackCurrentTransaction() {
+		// Nothing has been changed yet
+		if (activeTransactions.remove(Thread.currentThread()) != null)
+			statistics.rollbacks.increment();
+	}
+
+	@Override
+	public boolean isTransactionActive() {
+		return activeTransactions.containsKey(Thread.currentThread());
+	}
+
+	@Override
+	public boolean isTransactionAborted() {
+		OptimisticTransaction tr = activeTransactions.get(Thread.currentThread());
+		return tr != null && tr.isFlgAborted();
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import cp1.base.ResourceOperation;
+
+/**
+ * The state of a transaction of OptimisticMT: the versions of the
+ * resources it has read and the operations it is going to run at commit.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+class OptimisticTransaction {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	private volatile boolean isAborted = false;
+
+	// The version each resource had when the transaction first read it
+	private final Map<ResourceVersion, Long> readVersions =
+			new IdentityHashMap<ResourceVersion, Long>();
+
+	private final Set<ResourceVersion> written = Collections.newSetFromMap(
+			new IdentityHashMap<ResourceVersion, Boolean>()
+	);
+
+	// The intent log, in the order the operations have been requested
+	private ResourceOperation[] intents = new ResourceOperation[INITIAL_CAPACITY];
+	private ResourceVersion[] intentResources = new ResourceVersion[INITIAL_CAPACITY];
+	private int intentCount = 0;
+
+	public void abort() {
+		isAborted = true;
+	}
+
+	public boolean isFlgAborted() {
+		return isAborted;
+	}
+
+	// false - the resource had been read before at another version
+	public boolean recordRead(ResourceVersion r, long version) {
+		Long before = readVersions.putIfAbsent(r, version);
+		return before == null || before == version;
+	}
+
+	public Map<ResourceVersion, Long> getReadVersions() {
+		return readVersions;
+	}
+
+	public boolean hasWritten(ResourceVersion r) {
+		return written.contains(r);
+	}
+
+	public Set<ResourceVersion> getWritten() {
+		return written;
+	}
+
+	public void addIntent(ResourceOperation operation, ResourceVersion r) {
+		if (intentCount == intents.length) {
+			intents = Arrays.copyOf(intents, intentCount * 2);
+			intentResources = Arrays.copyOf(intentResources, intentCount * 2);
+		}
+
+		intents[intentCount] = operation;
+		intentResources[intentCount] = r;
+		++intentCount;
+
+		if (!operation.isReadOnly())
+			written.add(r);
+	}
+
+	public int getIntentCount() {
+		return intentCount;
+	}
+
+	public ResourceOperation getIntent(int i) {
+		return intents[i];
+	}
+
+	public ResourceVersion getIntentResource(int i) {
+		return intentResources[i];
+	}
+
+}
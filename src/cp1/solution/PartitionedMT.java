@@ -0,0 +1,369 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.AnotherTransactionActiveException;
+import cp1.base.LocalTimeProvider;
+import cp1.base.LockWaitTimeoutException;
+import cp1.base.NoActiveTransactionException;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+import cp1.base.TimeoutSupport;
+import cp1.base.TransactionHandle;
+import cp1.base.UnknownResourceIdException;
+
+/**
+ * A transaction manager with the resources split between partitions,
+ * each of them an independent MT with maps and queues of its own.
+ *
+ * A transaction runs a branch in every partition it operates in,
+ * through the handle of a detached transaction of that partition.
+ * A transaction that has operated in a single partition commits there
+ * directly, and is only tracked as a global transaction once it
+ * touches a second one. Then all the branches are prepared first, and
+ * only if all of them have promised to commit are they committed.
+ *
+ * The coordinator talks to the partitions through the handles alone.
+ * Deadlock detection does look into other partitions though, following
+ * the branches of a transaction through shared memory.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class PartitionedMT implements TimeoutSupport {
+
+	private final MT[] partitions;
+	private final ToIntFunction<ResourceId> partitioner;
+	private final LocalTimeProvider timeProvider;
+
+	private final ConcurrentMap<Thread, Coordinator> activeTransactions =
+			new ConcurrentHashMap<Thread, Coordinator>();
+
+	// Shared by the partitions, so that branches of different
+	// transactions never have the same age
+	private final AtomicLong transactionSerial = new AtomicLong();
+
+	private final LongAdder activeCount = new LongAdder();
+
+	private final LongAdder localCommits = new LongAdder();
+	private final LongAdder distributedCommits = new LongAdder();
+
+	// The partitioner maps the id of every resource to the index
+	// of its partition, from 0 to partitionCount - 1
+	protected PartitionedMT(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			int partitionCount,
+			ToIntFunction<ResourceId> partitioner
+	) {
+		this.partitioner = partitioner;
+		this.timeProvider = timeProvider;
+
+		List<List<Resource>> split = new ArrayList<List<Resource>>(partitionCount);
+		for (int p = 0; p < partitionCount; ++p)
+			split.add(new ArrayList<Resource>());
+
+		for (Resource r: resources) {
+			int p = partitioner.applyAsInt(r.getId());
+
+			if (p < 0 || p >= partitionCount)
+				throw new IllegalArgumentException("No partition " + p + " for " + r.getId());
+
+			split.get(p).add(r);
+		}
+
+		partitions = new MT[partitionCount];
+		for (int p = 0; p < partitionCount; ++p) {
+			partitions[p] = new MT(split.get(p), timeProvider) {
+				// A cycle may go through the other partitions
+				@Override
+				int getMaxCycleLength() {
+					return activeCount.intValue();
+				}
+			};
+		}
+	}
+
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+
+	public Statistics getStatistics(int partition) {
+		return partitions[partition].getStatistics();
+	}
+
+	// Committed in one partition, without a prepare phase
+	public long getLocalCommits() {
+		return localCommits.sum();
+	}
+
+	public long getDistributedCommits() {
+		return distributedCommits.sum();
+	}
+
+	@Override
+	public void startTransaction(
+	) throws
+		AnotherTransactionActiveException {
+
+		if (isTransactionActive())
+			throw new AnotherTransactionActiveException();
+
+		Coordinator c = new Coordinator(
+				timeProvider.getTime(),
+				transactionSerial.incrementAndGet()
+		);
+
+		activeCount.increment();
+		activeTransactions.put(Thread.currentThread(), c);
+	}
+
+	// The branches started later get the deadline too
+	@Override
+	public void startTransaction(
+			long timeout,
+			TimeUnit unit
+	) throws
+		AnotherTransactionActiveException {
+
+		startTransaction();
+		activeTransactions.get(Thread.currentThread()).setDeadline(
+				System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	@Override
+	public void operateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException {
+
+		getBranch(rid).operateOnResource(rid, operation);
+	}
+
+	@Override
+	public void operateOnResourceInCurrentTransaction(
+			ResourceId rid,
+			ResourceOperation operation,
+			long timeout,
+			TimeUnit unit
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException,
+		ActiveTransactionAborted,
+		ResourceOperationException,
+		InterruptedException,
+		LockWaitTimeoutException {
+
+		getBranch(rid).operateOnResource(rid, operation, timeout, unit);
+	}
+
+	// Starts the branch in the partition of the resource if there is none
+	private TransactionHandle getBranch(
+			ResourceId rid
+	) throws
+		NoActiveTransactionException,
+		UnknownResourceIdException {
+
+		Coordinator c = activeTransactions.get(Thread.currentThread());
+
+		if (c == null)
+			throw new NoActiveTransactionException();
+
+		int p = partitioner.applyAsInt(rid);
+
+		if (p < 0 || p >= partitions.length)
+			throw new UnknownResourceIdException(rid);
+
+		if (c.first == null) {
+			c.firstPartition = p;
+			c.first = startBranch(c, p);
+			return c.first;
+		}
+
+		if (p == c.firstPartition)
+			return c.first;
+
+		if (c.global == null) {
+			c.global = new GlobalTransaction(c.startDate, c.serial);
+			c.branches = new TransactionHandle[partitions.length];
+			c.branches[c.firstPartition] = c.first;
+			partitions[c.firstPartition].joinBranch(c.first, c.global);
+		}
+
+		if (c.branches[p] == null)
+			c.branches[p] = startBranch(c, p);
+
+		return c.branches[p];
+	}
+
+	private TransactionHandle startBranch(Coordinator c, int p) {
+		return c.hasDeadline ?
+				partitions[p].startBranch(c.startDate, c.serial, c.global, c.deadline) :
+				partitions[p].startBranch(c.startDate, c.serial, c.global);
+	}
+
+	@Override
+	public void commitCurrentTransaction(
+	) throws
+		NoActiveTransactionException,
+		ActiveTransactionAborted {
+
+		Coordinator c = activeTransactions.get(Thread.currentThread());
+
+		if (c == null)
+			throw new NoActiveTransactionException();
+
+		if (c.isAborted())
+			throw new ActiveTransactionAborted();
+
+		if (c.global == null) {
+			if (c.first != null) {
+				c.first.commit();
+				localCommits.increment();
+			}
+		}
+		else {
+			for (TransactionHandle branch: c.branches) {
+				// The branches prepared so far are rolled back with the rest
+				if (branch != null && !branch.prepare()) {
+					c.global.abort();
+					throw new ActiveTransactionAborted();
+				}
+			}
+
+			// Aborted after the last branch has prepared
+			if (!c.global.decideCommit())
+				throw new ActiveTransactionAborted();
+
+			// None of them can be aborted any more
+			for (TransactionHandle branch: c.branches) {
+				if (branch != null)
+					branch.commit();
+			}
+
+			distributedCommits.increment();
+		}
+
+		finish();
+	}
+
+	@Override
+	public void rollbackCurrentTransaction() {
+		Coordinator c = activeTransactions.get(Thread.currentThread());
+
+		if (c == null)
+			return;
+
+		c.rollback();
+		finish();
+	}
+
+	// The branches are started over lazily, as the first time
+	@Override
+	public void restartCurrentTransaction(
+	) throws
+		NoActiveTransactionException {
+
+		Coordinator c = activeTransactions.get(Thread.currentThread());
+
+		if (c == null)
+			throw new NoActiveTransactionException();
+
+		c.rollback();
+		activeTransactions.put(Thread.currentThread(), new Coordinator(c.startDate, c.serial));
+	}
+
+	private void finish() {
+		activeTransactions.remove(Thread.currentThread());
+		activeCount.decrement();
+	}
+
+	@Override
+	public boolean isTransactionActive() {
+		return activeTransactions.containsKey(Thread.currentThread());
+	}
+
+	@Override
+	public boolean isTransactionAborted() {
+		Coordinator c = activeTransactions.get(Thread.currentThread());
+		return c != null && c.isAborted();
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (MT partition: partitions)
+			partition.close();
+	}
+
+	// The branches of the transaction of a thread
+	private final class Coordinator {
+
+		private final long startDate;
+		private final long serial;
+
+		// The branch started first, and its partition
+		private TransactionHandle first = null;
+		private int firstPartition;
+
+		// Once a second partition is touched, the branches by partition
+		private GlobalTransaction global = null;
+		private TransactionHandle[] branches = null;
+
+		private boolean hasDeadline = false;
+		private long deadline;
+
+		private Coordinator(long startDate, long serial) {
+			this.startDate = startDate;
+			this.serial = serial;
+		}
+
+		private boolean isAborted() {
+			if (global != null)
+				return global.isAborted();
+			else
+				return first != null && first.isAborted();
+		}
+
+		private void rollback() {
+			if (branches != null) {
+				for (TransactionHandle branch: branches) {
+					if (branch != null)
+						branch.rollback();
+				}
+			}
+			else if (first != null) {
+				first.rollback();
+			}
+		}
+
+		private void setDeadline(long deadline) {
+			this.deadline = deadline;
+			hasDeadline = true;
+		}
+
+	}
+
+}
@@ -0,0 +1,716 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.LockWaitTimeoutException;
+import cp1.base.Resource;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+
+/**
+ * Access control over a single resource.
+ *
+ * The resource is held either by a single transaction in exclusive
+ * mode or by any number of transactions in shared mode. A released
+ * resource is handed directly to the waiters at the head of the queue
+ * that can run together, and only their threads are woken up.
+ *
+ * Holders asking for a stronger mode go before the queue, and are
+ * granted as soon as the other holders allow it. The queue itself is
+ * ordered by the grant scheduler of the manager.
+ *
+ * Transactions running commutative operations of the same class hold
+ * the resource together. The operations themselves still run one at
+ * a time, and within the escrow bounds of the resource if it has any.
+ *
+ * A resource may belong to a group, which is locked the same way
+ * by the transactions operating on its members.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+class ResourceLock {
+
+	private final Resource resource;
+
+	// The group the resource belongs to, null if none
+	private final ResourceLock parent;
+
+	// How many groups the resource is nested in
+	private final int depth;
+
+	// Guards the holders and both queues
+	private final ReentrantLock latch = new ReentrantLock();
+
+	private final Map<Transaction, LockMode> holders =
+			new IdentityHashMap<Transaction, LockMode>();
+
+	// The class of the operations of the holders in COMMUTATIVE mode,
+	// guarded by the latch
+	private Object commutativity = null;
+
+	// Ordered by age, the oldest transaction first
+	private final NavigableSet<Transaction> upgrades = new TreeSet<Transaction>();
+
+	// Ordered by the scheduler
+	private final NavigableSet<Transaction> waiters;
+	private final GrantScheduler scheduler;
+
+	// Of both queues, written under the latch
+	private volatile int queueLength = 0;
+
+	private final Statistics statistics;
+
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+
+	// Guarded by the latch
+	private int maxQueueDepth = 0;
+
+	// Guards running commutative operations and the escrow fields
+	private final ReentrantLock applying = new ReentrantLock();
+
+	// Whether the resource has escrow bounds
+	private final boolean escrowed;
+
+	// The escrow value could be anywhere between low and high, depending
+	// on which of the pending operations get committed and which undone
+	private long low;
+	private long high;
+	private int pending = 0;
+
+	// At most this many committed versions are kept for snapshot reads
+	private static final int MAX_VERSIONS = 16;
+
+	// The committed states of the resource, the newest first.
+	// null if the resource cannot be read in snapshot transactions.
+	private volatile Version versions = null;
+
+	// The number of the log record of the last change committed,
+	// 0 if none has been logged since the log was opened
+	private volatile long lastRecord = 0;
+
+	protected ResourceLock(Resource resource, Statistics statistics) {
+		this(resource, statistics, null, GrantScheduler.fifo());
+	}
+
+	protected ResourceLock(
+			Resource resource,
+			Statistics statistics,
+			ResourceLock parent,
+			GrantScheduler scheduler
+	) {
+		this.resource = resource;
+		this.statistics = statistics;
+		this.parent = parent;
+		this.depth = parent == null ? 0 : parent.depth + 1;
+		this.scheduler = scheduler;
+		this.waiters = new TreeSet<Transaction>(scheduler.order());
+		this.escrowed = resource.getEscrowMin() != Long.MIN_VALUE ||
+				resource.getEscrowMax() != Long.MAX_VALUE;
+
+		Resource initial = resource.copyForSnapshot();
+
+		if (initial != null)
+			versions = new Version(0, initial, null);
+	}
+
+	public Resource getResource() {
+		return resource;
+	}
+
+	public ResourceLock getParent() {
+		return parent;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	// Whether the resource belongs to the group,
+	// directly or through its subgroups
+	public boolean isWithin(ResourceLock group) {
+		for (ResourceLock g = parent; g != null; g = g.parent) {
+			if (g == group)
+				return true;
+		}
+
+		return false;
+	}
+
+	// How many transactions are queued, possibly stale already
+	public int getQueueLength() {
+		return queueLength;
+	}
+
+	public boolean isVersioned() {
+		return versions != null;
+	}
+
+	// The state committed last at or before the snapshot timestamp,
+	// null if it has already been discarded
+	public Resource getVersion(long snapshot) {
+		for (Version v = versions; v != null; v = v.older) {
+			if (v.commitTs <= snapshot)
+				return v.supersededAt > snapshot ? v.state : null;
+		}
+
+		return null;
+	}
+
+	// Called by the manager under its commit lock
+	public void addVersion(Resource state, long commitTs) {
+		Version head = versions;
+
+		head.supersededAt = commitTs;
+		versions = new Version(commitTs, state, head);
+	}
+
+	// Drops the versions no snapshot at or after the oldest one can read,
+	// and the oldest ones beyond MAX_VERSIONS. The version the pinned
+	// snapshot reads is kept anyway, if there is one pinned.
+	// Called under the commit lock.
+	public void trimVersions(long oldestSnapshot, long pinnedSnapshot) {
+		Version v = versions;
+
+		for (int kept = 1; v.older != null; ++kept) {
+			if (v.commitTs <= oldestSnapshot || kept == MAX_VERSIONS)
+				break;
+
+			v = v.older;
+		}
+
+		Version pinned = null;
+
+		if (pinnedSnapshot >= 0 && v.commitTs > pinnedSnapshot) {
+			for (pinned = v.older; pinned != null; pinned = pinned.older) {
+				if (pinned.commitTs <= pinnedSnapshot) {
+					pinned.older = null;
+					break;
+				}
+			}
+		}
+
+		// A snapshot that needs one of the versions cut out in between
+		// finds the pinned one superseded, and is too old
+		v.older = pinned;
+	}
+
+	private static final class Version {
+
+		private final long commitTs;
+		private final Resource state;
+
+		// Cut off when no snapshot needs the older versions any more
+		private volatile Version older;
+
+		// The timestamp of the commit of the next version
+		private volatile long supersededAt = Long.MAX_VALUE;
+
+		private Version(long commitTs, Resource state, Version older) {
+			this.commitTs = commitTs;
+			this.state = state;
+			this.older = older;
+		}
+
+	}
+
+	// The mode to hold the resource in for the operation
+	public LockMode modeFor(ResourceOperation operation) {
+		LockMode mode = LockMode.of(operation);
+
+		// Snapshots could see the changes of commutative
+		// holders which have not committed yet
+		if (mode == LockMode.COMMUTATIVE && isVersioned())
+			return LockMode.EXCLUSIVE;
+
+		return mode;
+	}
+
+	// Whether tr, holding the resource in COMMUTATIVE mode,
+	// may run operations of the class without an upgrade
+	public boolean isCommutingAs(Transaction tr, Object commutativity) {
+		latch.lock();
+		try {
+			return holders.get(tr) == LockMode.COMMUTATIVE &&
+					this.commutativity.equals(commutativity);
+		}
+		finally {
+			latch.unlock();
+		}
+	}
+
+	public boolean tryAcquireOrEnqueue(Transaction tr, LockMode mode) {
+		return tryAcquireOrEnqueue(tr, mode, null);
+	}
+
+	// true - the resource has been granted without waiting.
+	// Otherwise tr has been queued and has to call awaitGrant.
+	// The class is that of the operations to run in COMMUTATIVE mode.
+	public boolean tryAcquireOrEnqueue(Transaction tr, LockMode mode, Object commutativity) {
+		List<Transaction> granted;
+		int queueDepth;
+
+		latch.lock();
+		try {
+			// Nobody to hand over to, so nothing to queue either
+			if (upgrades.isEmpty() && waiters.isEmpty() &&
+					(holders.isEmpty() || isCompatible(tr, mode, commutativity))) {
+				addHolder(tr, mode, commutativity);
+				return true;
+			}
+
+			if (holders.containsKey(tr)) {
+				upgrades.add(tr);
+			}
+			else {
+				scheduler.prioritize(tr);
+				waiters.add(tr);
+			}
+			tr.setWaitingOn(this, mode, commutativity);
+
+			// tr may have got ahead of everyone who is waiting already
+			granted = grantWaiting();
+
+			queueDepth = upgrades.size() + waiters.size();
+			if (queueDepth > maxQueueDepth)
+				maxQueueDepth = queueDepth;
+		}
+		finally {
+			latch.unlock();
+		}
+
+		boolean self = granted != null && granted.remove(tr);
+
+		if (!self)
+			statistics.queueDepths.record(queueDepth);
+
+		wakeUp(granted);
+		return self;
+	}
+
+	// Grants the resource only if nobody has to be waited for,
+	// otherwise leaves everything as it was
+	public boolean tryAcquire(Transaction tr, LockMode mode) {
+		latch.lock();
+		try {
+			if (upgrades.isEmpty() && waiters.isEmpty() && isCompatible(tr, mode, null)) {
+				addHolder(tr, mode, null);
+				return true;
+			}
+
+			return false;
+		}
+		finally {
+			latch.unlock();
+		}
+	}
+
+	public long getLastRecord() {
+		return lastRecord;
+	}
+
+	// Called under the commit lock, with increasing numbers
+	public void setLastRecord(long record) {
+		lastRecord = record;
+	}
+
+	// Runs the operation of tr, which holds the resource or a group
+	// covering it. Fails if the escrow value could leave its bounds.
+	public void apply(Transaction tr, ResourceOperation operation) throws
+		ResourceOperationException {
+
+		if (operation.getCommutativityClass() == null) {
+			operation.execute(resource);
+			return;
+		}
+
+		applying.lock();
+		try {
+			long delta = operation.getEscrowDelta();
+
+			if (!escrowed || delta == 0) {
+				operation.execute(resource);
+				return;
+			}
+
+			// Nothing pending, or nobody else can run anything,
+			// so the value is known exactly
+			if (pending == 0 || tr.getHeldMode(this) != LockMode.COMMUTATIVE)
+				low = high = resource.getEscrowValue();
+
+			if (delta < 0 ? low + delta < resource.getEscrowMin() :
+					high + delta > resource.getEscrowMax())
+				throw new ResourceOperationException(resource.getId(), operation);
+
+			operation.execute(resource);
+
+			if (delta < 0)
+				low += delta;
+			else
+				high += delta;
+			++pending;
+		}
+		finally {
+			applying.unlock();
+		}
+	}
+
+	// Undoes an operation run by apply
+	public void unapply(ResourceOperation operation) {
+		if (operation.getCommutativityClass() == null) {
+			operation.undo(resource);
+			return;
+		}
+
+		applying.lock();
+		try {
+			operation.undo(resource);
+
+			long delta = operation.getEscrowDelta();
+
+			if (!escrowed || delta == 0)
+				return;
+
+			if (delta < 0)
+				low -= delta;
+			else
+				high -= delta;
+			--pending;
+		}
+		finally {
+			applying.unlock();
+		}
+	}
+
+	// Called for every operation with an escrow delta
+	// of a transaction committing, before it releases the resource.
+	// Only those run by apply as commutative ones are counted.
+	public void settle(ResourceOperation operation) {
+		if (operation.getCommutativityClass() == null)
+			return;
+
+		long delta = operation.getEscrowDelta();
+
+		if (!escrowed || delta == 0)
+			return;
+
+		applying.lock();
+		try {
+			if (delta < 0)
+				high += delta;
+			else
+				low += delta;
+			--pending;
+		}
+		finally {
+			applying.unlock();
+		}
+	}
+
+	// Called once a wait for this resource has ended, however it has
+	public void recordWait(long nanos) {
+		waits.increment();
+		waitNanos.add(nanos);
+		statistics.waitTimes.record(nanos);
+	}
+
+	public ResourceStatistics getStatistics() {
+		int queueDepth;
+		int maxDepth;
+
+		latch.lock();
+		try {
+			queueDepth = upgrades.size() + waiters.size();
+			maxDepth = maxQueueDepth;
+		}
+		finally {
+			latch.unlock();
+		}
+
+		return new ResourceStatistics(
+				resource.getId(),
+				waits.sum(),
+				waitNanos.sum(),
+				queueDepth,
+				maxDepth
+		);
+	}
+
+	// Parks until the resource is handed over to tr.
+	// If tr gets aborted, its thread interrupted or its wait deadline
+	// passes in the meantime, tr leaves the queue and the matching
+	// exception is thrown.
+	public void awaitGrant(Transaction tr) throws
+		InterruptedException,
+		ActiveTransactionAborted,
+		LockWaitTimeoutException {
+
+		boolean timed = tr.hasWaitDeadline();
+		long deadline = timed ? tr.getWaitDeadline() : 0;
+
+		while (tr.getWaitingOn() == this) {
+			boolean aborted = tr.isFlgAborted();
+
+			if (aborted || Thread.interrupted()) {
+				if (cancel(tr)) {
+					if (aborted)
+						throw new ActiveTransactionAborted();
+					else
+						throw new InterruptedException();
+				}
+
+				// Granted concurrently with the cancellation
+				if (!aborted)
+					Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (!timed) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			long remaining = deadline - System.nanoTime();
+
+			if (remaining > 0) {
+				LockSupport.parkNanos(this, remaining);
+			}
+			else if (cancel(tr)) {
+				statistics.timeouts.increment();
+				throw new LockWaitTimeoutException();
+			}
+		}
+	}
+
+	// true - tr has been removed from the queue,
+	// false - the resource had already been handed over to tr
+	public boolean cancel(Transaction tr) {
+		List<Transaction> granted;
+
+		latch.lock();
+		try {
+			if (tr.getWaitingOn() != this)
+				return false;
+
+			if (!upgrades.remove(tr))
+				waiters.remove(tr);
+			tr.setWaitingOn(null, null);
+
+			// Whoever queued behind tr may be able to go now
+			granted = grantWaiting();
+		}
+		finally {
+			latch.unlock();
+		}
+
+		wakeUp(granted);
+		return true;
+	}
+
+	public void release(Transaction tr) {
+		List<Transaction> granted;
+
+		latch.lock();
+		try {
+			holders.remove(tr);
+			granted = grantWaiting();
+		}
+		finally {
+			latch.unlock();
+		}
+
+		wakeUp(granted);
+	}
+
+	// The transactions that tr, queued on this resource, has to wait for:
+	// the incompatible holders and the incompatible transactions queued
+	// before it. Empty if tr is not queued here any more.
+	public List<Transaction> blockersOf(Transaction tr) {
+		List<Transaction> blockers = new ArrayList<Transaction>();
+
+		latch.lock();
+		try {
+			if (tr.getWaitingOn() != this)
+				return blockers;
+
+			LockMode mode = tr.getRequestedMode();
+			Object c = tr.getRequestedCommutativity();
+
+			for (Map.Entry<Transaction, LockMode> h: holders.entrySet()) {
+				if (h.getKey() != tr && !isCompatible(h.getValue(), commutativity, mode, c))
+					blockers.add(h.getKey());
+			}
+
+			if (upgrades.contains(tr)) {
+				blockers.addAll(upgrades.headSet(tr, false));
+			}
+			else {
+				blockers.addAll(upgrades);
+
+				for (Transaction w: waiters.headSet(tr, false)) {
+					if (!isCompatible(w.getRequestedMode(), w.getRequestedCommutativity(), mode, c))
+						blockers.add(w);
+				}
+			}
+		}
+		finally {
+			latch.unlock();
+		}
+
+		return blockers;
+	}
+
+	// The queued transactions that tr, a holder or queued itself,
+	// blocks on this resource. The inverse of blockersOf.
+	public List<Transaction> blockedBy(Transaction tr) {
+		List<Transaction> blocked = new ArrayList<Transaction>();
+
+		latch.lock();
+		try {
+			LockMode held = holders.get(tr);
+			boolean upgrading = upgrades.contains(tr);
+			boolean queued = !upgrading && tr.getWaitingOn() == this;
+
+			for (Transaction u: upgrades) {
+				if (u == tr)
+					continue;
+
+				if ((held != null && !isCompatible(
+						held, commutativity, u.getRequestedMode(), u.getRequestedCommutativity())) ||
+						(upgrading && tr.compareTo(u) < 0))
+					blocked.add(u);
+			}
+
+			for (Transaction w: waiters) {
+				if (w == tr)
+					continue;
+
+				LockMode mode = w.getRequestedMode();
+				Object c = w.getRequestedCommutativity();
+
+				if ((held != null && !isCompatible(held, commutativity, mode, c)) || upgrading ||
+						(queued && precedes(tr, w) && !isCompatible(
+								tr.getRequestedMode(), tr.getRequestedCommutativity(), mode, c)))
+					blocked.add(w);
+			}
+		}
+		finally {
+			latch.unlock();
+		}
+
+		return blocked;
+	}
+
+	// Whether tr is before w in the queue of waiters
+	private boolean precedes(Transaction tr, Transaction w) {
+		Comparator<? super Transaction> order = waiters.comparator();
+
+		if (order == null)
+			return tr.compareTo(w) < 0;
+		else
+			return order.compare(tr, w) < 0;
+	}
+
+	private boolean isCompatible(Transaction tr, LockMode mode, Object c) {
+		for (Map.Entry<Transaction, LockMode> h: holders.entrySet()) {
+			if (h.getKey() != tr && !isCompatible(h.getValue(), commutativity, mode, c))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean isCompatible(LockMode mode1, Object c1, LockMode mode2, Object c2) {
+		if (mode1 == LockMode.COMMUTATIVE && mode2 == LockMode.COMMUTATIVE)
+			return c1.equals(c2);
+		else
+			return mode1.isCompatibleWith(mode2);
+	}
+
+	// All the holders in COMMUTATIVE mode run operations of one class
+	private void addHolder(Transaction tr, LockMode mode, Object c) {
+		if (mode == LockMode.COMMUTATIVE)
+			commutativity = c;
+
+		holders.put(tr, mode);
+	}
+
+	// Called under the latch whenever the queues may have changed
+	private List<Transaction> grantWaiting() {
+		List<Transaction> granted = grantQueued();
+
+		queueLength = upgrades.size() + waiters.size();
+		return granted;
+	}
+
+	// Grants the resource to the heads of the queues, in order,
+	// as long as the granted modes are compatible
+	private List<Transaction> grantQueued() {
+		List<Transaction> granted = null;
+
+		if (upgrades.isEmpty() && waiters.isEmpty())
+			return granted;
+
+		Iterator<Transaction> it = upgrades.iterator();
+		while (it.hasNext()) {
+			Transaction u = it.next();
+
+			if (!isCompatible(u, u.getRequestedMode(), u.getRequestedCommutativity()))
+				return granted;
+
+			it.remove();
+			granted = grant(granted, u);
+		}
+
+		it = waiters.iterator();
+		while (it.hasNext()) {
+			Transaction w = it.next();
+
+			if (!isCompatible(w, w.getRequestedMode(), w.getRequestedCommutativity()))
+				return granted;
+
+			it.remove();
+			granted = grant(granted, w);
+		}
+
+		return granted;
+	}
+
+	private List<Transaction> grant(List<Transaction> granted, Transaction tr) {
+		addHolder(tr, tr.getRequestedMode(), tr.getRequestedCommutativity());
+		tr.setWaitingOn(null, null);
+
+		if (granted == null)
+			granted = new ArrayList<Transaction>(1);
+
+		granted.add(tr);
+		return granted;
+	}
+
+	private static void wakeUp(List<Transaction> granted) {
+		if (granted == null)
+			return;
+
+		for (Transaction tr: granted)
+			tr.wakeUp();
+	}
+
+}
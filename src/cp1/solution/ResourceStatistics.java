@@ -0,0 +1,68 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import cp1.base.ResourceId;
+
+/**
+ * A snapshot of how contended a single resource has been.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public final class ResourceStatistics {
+
+	private final ResourceId rid;
+	private final long waits;
+	private final long waitNanos;
+	private final int queueDepth;
+	private final int maxQueueDepth;
+
+	ResourceStatistics(
+			ResourceId rid,
+			long waits,
+			long waitNanos,
+			int queueDepth,
+			int maxQueueDepth
+	) {
+		this.rid = rid;
+		this.waits = waits;
+		this.waitNanos = waitNanos;
+		this.queueDepth = queueDepth;
+		this.maxQueueDepth = maxQueueDepth;
+	}
+
+	public ResourceId getResourceId() {
+		return rid;
+	}
+
+	// How many times a transaction had to wait for the resource
+	public long getWaits() {
+		return waits;
+	}
+
+	// Summed up over all the waits, including aborted ones
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	// Transactions queued on the resource when the snapshot was taken
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	@Override
+	public String toString() {
+		return rid + ": " + waits + " waits, " + waitNanos + " ns waiting, queue " +
+				queueDepth + " (max " + maxQueueDepth + ")";
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import cp1.base.Resource;
+
+/**
+ * A resource under optimistic concurrency control.
+ *
+ * The version grows by one with every transaction committing
+ * a change of the resource. Operations are only ever run on it
+ * under the latch, which is held for the length of a single read
+ * or of the validation and writes of a single commit.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+class ResourceVersion {
+
+	private final Resource resource;
+
+	private final ReentrantLock latch = new ReentrantLock();
+
+	// Only changed under the latch
+	private volatile long version = 0;
+
+	protected ResourceVersion(Resource resource) {
+		this.resource = resource;
+	}
+
+	public Resource getResource() {
+		return resource;
+	}
+
+	public void lock() {
+		latch.lock();
+	}
+
+	public void unlock() {
+		latch.unlock();
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	// Called under the latch, once per committed transaction
+	public void bumpVersion() {
+		version = version + 1;
+	}
+
+}
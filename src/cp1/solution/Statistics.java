@@ -0,0 +1,148 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ * 
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a transaction manager, updated as it runs.
+ * 
+ * All of them are striped, so they are cheap to keep on under load.
+ * Nothing is recorded on the path of a transaction which never waits
+ * except for one increment on commit or rollback. The values are read
+ * one by one and need not be consistent with each other.
+ * 
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public final class Statistics {
+
+	final LongAdder commits = new LongAdder();
+	final LongAdder rollbacks = new LongAdder();
+	final LongAdder undoSteps = new LongAdder();
+	final LongAdder deadlocks = new LongAdder();
+	final LongAdder victims = new LongAdder();
+	final LongAdder conflicts = new LongAdder();
+	final LongAdder snapshotsTooOld = new LongAdder();
+	final LongAdder timeouts = new LongAdder();
+	final LongAdder escalations = new LongAdder();
+	final LongAdder partialRollbacks = new LongAdder();
+	final LongAdder restarts = new LongAdder();
+	final LongAdder rejections = new LongAdder();
+
+	// Of the transactions which had to wait, in nanoseconds
+	final Histogram waitTimes = new Histogram();
+
+	// The length of the queue a transaction has joined, itself included
+	final Histogram queueDepths = new Histogram();
+
+	private Collection<ResourceLock> resources;
+
+	Statistics() {
+	}
+
+	// Called once by the owner, when its resources are known
+	void setResources(Collection<ResourceLock> resources) {
+		this.resources = resources;
+	}
+
+	public long getCommits() {
+		return commits.sum();
+	}
+
+	public long getRollbacks() {
+		return rollbacks.sum();
+	}
+
+	// Rollbacks to a savepoint, the transaction going on afterwards
+	public long getPartialRollbacks() {
+		return partialRollbacks.sum();
+	}
+
+	// Transactions started over as old as they were
+	public long getRestarts() {
+		return restarts.sum();
+	}
+
+	// Operations undone, by rollbacks and by failed batches
+	public long getUndoSteps() {
+		return undoSteps.sum();
+	}
+
+	// Starts given up at a deadline, as too many transactions were running
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	public long getDeadlocksDetected() {
+		return deadlocks.sum();
+	}
+
+	// Aborted by the deadlock policy. With detection, less than
+	// the deadlocks detected if two transactions have found the same cycle
+	public long getVictimsAborted() {
+		return victims.sum();
+	}
+
+	// Optimistic transactions aborted as something they read has changed
+	public long getConflicts() {
+		return conflicts.sum();
+	}
+
+	// Snapshot transactions aborted as a version they needed was discarded
+	public long getSnapshotsTooOld() {
+		return snapshotsTooOld.sum();
+	}
+
+	// Waits for a resource given up at a deadline
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	// Groups locked as a whole after their members one by one
+	public long getEscalations() {
+		return escalations.sum();
+	}
+
+	public Histogram getWaitTimes() {
+		return waitTimes;
+	}
+
+	public Histogram getQueueDepths() {
+		return queueDepths;
+	}
+
+	// The resources transactions have spent the most time waiting for,
+	// the hottest first. Goes through all the resources.
+	public List<ResourceStatistics> getHottestResources(int limit) {
+		List<ResourceStatistics> result = new ArrayList<ResourceStatistics>();
+		
+		for (ResourceLock r: resources) {
+			ResourceStatistics s = r.getStatistics();
+			
+			if (s.getWaits() > 0)
+				result.add(s);
+		}
+		
+		result.sort(new Comparator<ResourceStatistics>() {
+			@Override
+			public int compare(ResourceStatistics a, ResourceStatistics b) {
+				return Long.compare(b.getWaitNanos(), a.getWaitNanos());
+			}
+		});
+		
+		if (result.size() > limit)
+			return new ArrayList<ResourceStatistics>(result.subList(0, limit));
+		else
+			return result;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the stamps ordering the transactions of a manager
+ * started at the same local time.
+ *
+ * Stamps are unique and grow with every transaction a thread starts.
+ * Those of different threads follow the order the transactions were
+ * started in exactly or only roughly, depending on the oracle.
+ *
+ * An instance is used by a single transaction manager.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public abstract class TimestampOracle {
+
+	TimestampOracle() {
+	}
+
+	// A single counter, shared by all the threads. Stamps follow
+	// the order of starts exactly, but every start writes to it.
+	public static TimestampOracle counter() {
+		return new Counter();
+	}
+
+	// Every thread takes so many stamps off the shared counter at a time,
+	// so it is written once per that many starts of the thread. A thread
+	// starting transactions slowly looks older than it is, but by no more
+	// than batchSize stamps: it drops the rest of its batch once the
+	// others have taken that many past the start of it.
+	public static TimestampOracle batched(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batches need at least one stamp");
+
+		return new Batched(batchSize);
+	}
+
+	abstract long next();
+
+	private static final class Counter extends TimestampOracle {
+
+		private final AtomicLong counter = new AtomicLong();
+
+		@Override
+		long next() {
+			return counter.incrementAndGet();
+		}
+
+	}
+
+	private static final class Batched extends TimestampOracle {
+
+		private final int batchSize;
+		private final AtomicLong counter = new AtomicLong();
+
+		// The next stamp to hand out, the end of the batch and its start
+		private final ThreadLocal<long[]> batches = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[3];
+			}
+		};
+
+		private Batched(int batchSize) {
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		long next() {
+			long[] batch = batches.get();
+
+			// Only read, the counter is written once per batch
+			if (batch[0] == batch[1] || counter.get() - batch[2] > batchSize) {
+				batch[0] = counter.getAndAdd(batchSize) + 1;
+				batch[1] = batch[0] + batchSize;
+				batch[2] = batch[0];
+			}
+
+			return batch[0]++;
+		}
+
+	}
+
+}
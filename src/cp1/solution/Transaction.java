@@ -1,25 +1,25 @@
 package cp1.solution;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
-import cp1.base.Resource;
 import cp1.base.ResourceOperation;
 
 public class Transaction implements Comparable<Transaction> {
 	private final long startDate;
-	private final Thread myThread;
+	private final long serial;
 	
 	@Override
 	public int compareTo(Transaction tr) {
 		long diff;
 		
 		if (startDate == tr.startDate) {
-			diff = myThread.getId() - tr.myThread.getId();
+			diff = serial - tr.serial;
 		}
 		else {
 			diff = startDate - tr.startDate;
@@ -46,118 +46,647 @@ public class Transaction implements Comparable<Transaction> {
 		}
 	}
 	
-	private boolean isAborted = false;
+	private volatile boolean isAborted = false;
 	
-	public void abort() {
-		isAborted = true;
-		myThread.interrupt();
+	// Set once the transaction has promised to commit
+	private boolean isPrepared = false;
+	
+	// The transaction this is a branch of, null if none. A branch
+	// joins it once the transaction spans a second manager.
+	private volatile GlobalTransaction global = null;
+	
+	// Runs on behalf of a transaction of another manager
+	private final boolean isBranch;
+	
+	// false - the transaction had already been aborted, or cannot be.
+	// A branch is aborted along with the rest of its transaction.
+	public boolean abort() {
+		GlobalTransaction global = this.global;
+		
+		if (global != null)
+			return global.abort();
+		else
+			return abortBranch();
+	}
+	
+	public boolean abortBranch() {
+		boolean first;
+		
+		synchronized (this) {
+			if (isPrepared)
+				return false;
+			
+			first = !isAborted;
+			isAborted = true;
+		}
+		
+		wakeUp();
+		return first;
+	}
+	
+	// false - the transaction has been aborted already,
+	// true - it cannot be aborted from now on
+	public synchronized boolean prepare() {
+		if (!isAborted)
+			isPrepared = true;
+		
+		return isPrepared;
+	}
+	
+	public synchronized boolean isPrepared() {
+		return isPrepared;
+	}
+	
+	public GlobalTransaction getGlobal() {
+		return global;
+	}
+	
+	public void setGlobal(GlobalTransaction global) {
+		this.global = global;
+	}
+	
+	public boolean isBranch() {
+		return isBranch;
 	}
 	
 	public boolean isFlgAborted() {
 		return isAborted;
 	}
 	
-	private boolean isLocked = false;
+	// Run instead of unparking the waiting thread, if set
+	private volatile Runnable wakeUpAction = null;
 	
-	public void lock() {
-		isLocked = true;
+	public void setWakeUpAction(Runnable action) {
+		wakeUpAction = action;
 	}
 	
-	public void unlock() {
-		isLocked = false;
+	// Wakes the thread up if it is parked waiting for a resource,
+	// or lets whoever is waiting asynchronously know
+	public void wakeUp() {
+		Runnable action = wakeUpAction;
+		
+		if (action != null)
+			action.run();
+		else
+			LockSupport.unpark(waitingThread);
 	}
 	
-	public boolean isFlgLocked() {
-		return isLocked;
+	public boolean resolveDeadlock() {
+		return abort();
 	}
 	
-	private final Set<Transaction> whoWaitsOnMe = new HashSet<Transaction>();
+	private static final long NO_SNAPSHOT = -1;
+	
+	// The commit timestamp this transaction reads at, if it is a snapshot one
+	private long snapshot = NO_SNAPSHOT;
+	
+	public void setSnapshot(long snapshot) {
+		this.snapshot = snapshot;
+	}
+	
+	public boolean isSnapshot() {
+		return snapshot != NO_SNAPSHOT;
+	}
+	
+	public long getSnapshot() {
+		return snapshot;
+	}
+	
+	// The number of the last log record of the changes this transaction
+	// has seen, which have to be on the disk before it commits
+	private long readRecord = 0;
+	
+	public void addReadRecord(long record) {
+		if (record > readRecord)
+			readRecord = record;
+	}
+	
+	public long getReadRecord() {
+		return readRecord;
+	}
+	
+	protected Transaction(long startDate, long serial) {
+		this(startDate, serial, false);
+	}
+	
+	// A new attempt at the same transaction, as old as this one
+	protected Transaction(Transaction previous) {
+		this(previous.startDate, previous.serial, false);
+	}
+	
+	protected Transaction(long startDate, long serial, boolean isBranch) {
+		this.startDate = startDate;
+		this.serial = serial;
+		this.isBranch = isBranch;
+	}
+	
+	// Sizes the arrays below start with, doubled when they fill up
+	private static final int INITIAL_CAPACITY = 4;
+	
+	// Held resources are found by a linear scan up to this many
+	private static final int INLINE_RESOURCES = 8;
+	
+	// The resources held, the mode each is held in, how many of
+	// the logged operations have been run on it, for a group how many
+	// of its members are held, and when it was first acquired,
+	// at the same index. Member counts are only kept once a member
+	// of a group is held, the order of acquisitions once a savepoint
+	// is set, null before.
+	private ResourceLock[] held = new ResourceLock[INITIAL_CAPACITY];
+	private LockMode[] heldModes = new LockMode[INITIAL_CAPACITY];
+	private int[] useCounts = new int[INITIAL_CAPACITY];
+	private int[] memberCounts = null;
+	private int[] acquiredAt = null;
+	private int heldCount = 0;
 	
-	public void addWaiting(Transaction tr) {
-		whoWaitsOnMe.add(tr);
+	// Counts the resources ever acquired
+	private int acquisitions = 0;
+	
+	// Whether some of the logged operations have been run on resources
+	// not held on their own, but covered by a lock on their group
+	private boolean coveredOperations = false;
+	
+	// Whether some of the logged operations have escrow deltas,
+	// to be settled on commit
+	private boolean escrowOperations = false;
+	
+	// Index of the arrays above, built once a transaction holds
+	// more than INLINE_RESOURCES resources
+	private Map<ResourceLock, Integer> heldIndex = null;
+	
+	private int indexOf(ResourceLock r) {
+		if (heldIndex != null) {
+			Integer i = heldIndex.get(r);
+			return i == null ? -1 : i;
+		}
+		
+		for (int i = 0; i < heldCount; ++i) {
+			if (held[i] == r)
+				return i;
+		}
+		
+		return -1;
 	}
 	
-	public void resolveDeadlock() {
-		for (Transaction tr: whoWaitsOnMe) {
-			tr.waitingFor = null;
+	// Also called when the resource has been upgraded to a stronger mode
+	public void addResource(ResourceLock r, LockMode mode) {
+		int i = indexOf(r);
+		
+		if (i >= 0) {
+			heldModes[i] = mode;
+			return;
+		}
+		
+		if (heldCount == held.length) {
+			held = Arrays.copyOf(held, heldCount * 2);
+			heldModes = Arrays.copyOf(heldModes, heldCount * 2);
+			useCounts = Arrays.copyOf(useCounts, heldCount * 2);
+			
+			if (memberCounts != null)
+				memberCounts = Arrays.copyOf(memberCounts, heldCount * 2);
+			if (acquiredAt != null)
+				acquiredAt = Arrays.copyOf(acquiredAt, heldCount * 2);
 		}
 		
-		if (waitingFor != null) {
-			waitingFor.whoWaitsOnMe.remove(this);
+		held[heldCount] = r;
+		heldModes[heldCount] = mode;
+		useCounts[heldCount] = 0;
+		
+		if (memberCounts != null)
+			memberCounts[heldCount] = 0;
+		if (acquiredAt != null)
+			acquiredAt[heldCount] = acquisitions;
+		
+		++acquisitions;
+		++heldCount;
+		
+		if (r.getParent() != null) {
+			if (memberCounts == null)
+				memberCounts = new int[held.length];
+			
+			// Not held when covered by a lock on a group further up
+			int p = indexOf(r.getParent());
+			
+			if (p >= 0)
+				++memberCounts[p];
 		}
 		
-		abort();
+		if (heldIndex != null) {
+			heldIndex.put(r, heldCount - 1);
+		}
+		else if (heldCount > INLINE_RESOURCES) {
+			heldIndex = new IdentityHashMap<ResourceLock, Integer>(heldCount * 2);
+			
+			for (int j = 0; j < heldCount; ++j)
+				heldIndex.put(held[j], j);
+		}
 	}
 	
-	protected Transaction(long startDate) {
-		this.startDate = startDate;
-		this.myThread = Thread.currentThread();
+	// null if the resource is not held by this transaction
+	public LockMode getHeldMode(ResourceLock r) {
+		int i = indexOf(r);
+		return i < 0 ? null : heldModes[i];
 	}
 	
-	// dummy
-	protected Transaction() {
-		startDate = 0;
-		myThread = null;
+	public int getResourceCount() {
+		return heldCount;
 	}
 	
-	// Long for how many times the resource has been operated on.
-	private final Map<Resource, Long> resourcesInUse = new HashMap<Resource, Long>();
+	public ResourceLock getResource(int i) {
+		return held[i];
+	}
 	
-	public void addResource(Resource r) {
-		resourcesInUse.put(r, (long)0);
+	// How many members of the group are held on their own
+	public int getMemberCount(ResourceLock group) {
+		int i = indexOf(group);
+		return i < 0 || memberCounts == null ? 0 : memberCounts[i];
 	}
 	
-	public boolean isUsingResource(Resource r) {
-		return resourcesInUse.containsKey(r);
+	// Forgets the members of the group held on their own, those of its
+	// subgroups and the subgroups too, now that the group is held in
+	// a mode covering them. They have to be released by the caller.
+	public List<ResourceLock> removeMembers(ResourceLock group) {
+		List<ResourceLock> members = new ArrayList<ResourceLock>();
+		
+		for (int i = heldCount - 1; i >= 0; --i) {
+			if (held[i].isWithin(group)) {
+				if (useCounts[i] != 0)
+					coveredOperations = true;
+				
+				members.add(held[i]);
+				removeResource(i);
+			}
+		}
+		
+		return members;
 	}
 	
-	public Iterator<Resource> getResourcesIterator() {
-		return resourcesInUse.keySet().iterator();
+	public boolean hasCoveredOperations() {
+		return coveredOperations;
 	}
 	
-	private final Stack<Pair<ResourceOperation, Resource>> stackTrace = new Stack<>();
+	public boolean hasEscrowOperations() {
+		return escrowOperations;
+	}
 	
-	public boolean isStackTraceEmpty() {
-		return stackTrace.empty();
+	// Moves the last held resource into the freed slot
+	private void removeResource(int i) {
+		ResourceLock parent = held[i].getParent();
+		int last = --heldCount;
+		
+		if (heldIndex != null)
+			heldIndex.remove(held[i]);
+		
+		if (i != last) {
+			held[i] = held[last];
+			heldModes[i] = heldModes[last];
+			useCounts[i] = useCounts[last];
+			
+			if (memberCounts != null)
+				memberCounts[i] = memberCounts[last];
+			if (acquiredAt != null)
+				acquiredAt[i] = acquiredAt[last];
+			
+			if (heldIndex != null)
+				heldIndex.put(held[i], i);
+		}
+		
+		held[last] = null;
+		heldModes[last] = null;
+		
+		if (parent != null && memberCounts != null) {
+			int p = indexOf(parent);
+			
+			if (p >= 0)
+				--memberCounts[p];
+		}
 	}
 	
-	public Pair<ResourceOperation, Resource> stackTracePop() {
-		return stackTrace.pop();
+	// The positions in the log of operations and in the sequence
+	// of acquisitions, of every savepoint set, null before the first
+	private int[] savepointOperations = null;
+	private int[] savepointAcquisitions = null;
+	private int savepointCount = 0;
+	
+	// Returns the number of the savepoint, counted from 0
+	public int setSavepoint() {
+		if (savepointOperations == null) {
+			savepointOperations = new int[INITIAL_CAPACITY];
+			savepointAcquisitions = new int[INITIAL_CAPACITY];
+			
+			// The resources held by now all count as acquired
+			// before any savepoint
+			acquiredAt = new int[held.length];
+		}
+		else if (savepointCount == savepointOperations.length) {
+			savepointOperations = Arrays.copyOf(savepointOperations, savepointCount * 2);
+			savepointAcquisitions = Arrays.copyOf(savepointAcquisitions, savepointCount * 2);
+		}
+		
+		savepointOperations[savepointCount] = undoSize;
+		savepointAcquisitions[savepointCount] = acquisitions;
+		return savepointCount++;
 	}
 	
-	public void registerOperation(ResourceOperation ro, Resource r) {
-		stackTrace.push(new Pair<ResourceOperation, Resource>(ro, r));
-		long rcount = resourcesInUse.get(r);
-		resourcesInUse.replace(r, rcount + 1);
+	public int getSavepointCount() {
+		return savepointCount;
 	}
 	
-	// true - the last action using this Resource has been rollbacked
-	public boolean rollbackResource(Resource r) {
-		long rcount = resourcesInUse.get(r);
-		assert rcount != 0;
+	// How many of the logged operations had been run at the savepoint
+	public int getSavepointOperations(int savepoint) {
+		return savepointOperations[savepoint];
+	}
+	
+	// Forgets the savepoints set after this one
+	public void discardSavepointsAfter(int savepoint) {
+		savepointCount = savepoint + 1;
+	}
+	
+	// Forgets the resources first acquired after the savepoint,
+	// which have to be released by the caller. The operations run
+	// on them have to be undone first.
+	public List<ResourceLock> removeAcquiredAfter(int savepoint) {
+		List<ResourceLock> acquired = new ArrayList<ResourceLock>();
 		
-		if (rcount == 1) {
-			resourcesInUse.remove(r);
-			return true;
+		for (int i = heldCount - 1; i >= 0; --i) {
+			if (acquiredAt[i] >= savepointAcquisitions[savepoint]) {
+				acquired.add(held[i]);
+				removeResource(i);
+			}
 		}
-		else {
-			resourcesInUse.replace(r, --rcount);
-			return false;
+		
+		return acquired;
+	}
+	
+	// The operations run so far, the latest one last. The oldest
+	// spilled ones are in the spill, the rest in the arrays.
+	private ResourceOperation[] undoOperations = new ResourceOperation[INITIAL_CAPACITY];
+	private ResourceLock[] undoResources = new ResourceLock[INITIAL_CAPACITY];
+	private int undoSize = 0;
+	
+	// null unless the undo log may be spilled, once the arrays
+	// hold spillLimit operations
+	private UndoSpill spill = null;
+	private int spillLimit = 0;
+	private int spilled = 0;
+	
+	public void setUndoSpill(UndoSpill spill, int spillLimit) {
+		this.spill = spill;
+		this.spillLimit = spillLimit;
+	}
+	
+	// Deletes the spilled operations, called when the transaction ends
+	public void closeUndoSpill() {
+		if (spill != null)
+			spill.close();
+	}
+	
+	public boolean isStackTraceEmpty() {
+		return undoSize == 0;
+	}
+	
+	// Makes room for the next operation, spilling the older ones if
+	// needed, so that registering it cannot fail once it has been applied
+	public void reserveOperation() {
+		if (spill != null && undoSize - spilled == spillLimit)
+			spillOldest();
+		
+		int at = undoSize - spilled;
+		
+		if (at == undoOperations.length) {
+			undoOperations = Arrays.copyOf(undoOperations, at * 2);
+			undoResources = Arrays.copyOf(undoResources, at * 2);
 		}
 	}
 	
-	private Transaction waitingFor = null;
+	public void registerOperation(ResourceOperation ro, ResourceLock r) {
+		reserveOperation();
+		
+		int at = undoSize - spilled;
+		undoOperations[at] = ro;
+		undoResources[at] = r;
+		++undoSize;
+		
+		if (ro.getEscrowDelta() != 0 && ro.getCommutativityClass() != null)
+			escrowOperations = true;
+		
+		int i = indexOf(r);
+		
+		if (i >= 0)
+			++useCounts[i];
+		else
+			coveredOperations = true;
+	}
+	
+	public int getOperationCount() {
+		return undoSize;
+	}
 	
-	public void setWaitFor(Transaction waiting) {
-		waitingFor = waiting;
+	// Cheap for the operations in the arrays, and for the spilled
+	// ones when read in order
+	public ResourceOperation getOperation(int i) {
+		if (i < spilled)
+			return spill.getOperation(i);
 		
-		if (waiting != null) {
-			waiting.addWaiting(this);
+		return undoOperations[i - spilled];
+	}
+	
+	public ResourceLock getOperationResource(int i) {
+		if (i < spilled)
+			return spill.getResource(i);
+		
+		return undoResources[i - spilled];
+	}
+	
+	// Moves the older half of the arrays into the spill
+	private void spillOldest() {
+		int n = Math.max(1, spillLimit / 2);
+		int kept = undoSize - spilled - n;
+		
+		int pushed = 0;
+		
+		try {
+			for (; pushed < n; ++pushed)
+				spill.push(undoOperations[pushed], undoResources[pushed]);
+		}
+		catch (RuntimeException e) {
+			// Leaves the spill as it was
+			for (; pushed > 0; --pushed)
+				spill.pop();
+			
+			throw e;
 		}
+		
+		System.arraycopy(undoOperations, n, undoOperations, 0, kept);
+		System.arraycopy(undoResources, n, undoResources, 0, kept);
+		Arrays.fill(undoOperations, kept, kept + n, null);
+		Arrays.fill(undoResources, kept, kept + n, null);
+		
+		spilled += n;
+	}
+	
+	// Brings the newest spilled operations back into the empty arrays
+	private void unspillNewest() {
+		int n = Math.min(spilled, Math.max(1, spillLimit / 2));
+		
+		for (int i = n - 1; i >= 0; --i) {
+			spill.pop();
+			undoOperations[i] = spill.getPoppedOperation();
+			undoResources[i] = spill.getPoppedResource();
+		}
+		
+		spilled -= n;
+	}
+	
+	// Undoes the last operation and takes it off the log,
+	// the resource stays held. Returns the resource operated on.
+	public ResourceLock undoLastOperation() {
+		if (undoSize == spilled)
+			unspillNewest();
+		
+		--undoSize;
+		
+		int at = undoSize - spilled;
+		ResourceOperation ro = undoOperations[at];
+		ResourceLock r = undoResources[at];
+		undoOperations[at] = null;
+		undoResources[at] = null;
+		
+		int i = indexOf(r);
+		
+		if (i >= 0)
+			--useCounts[i];
+		
+		r.unapply(ro);
+		return r;
+	}
+	
+	// true - no logged operation has been run on the resource,
+	// it is forgotten and has to be released by the caller
+	public boolean removeIfUnused(ResourceLock r) {
+		int i = indexOf(r);
+		
+		// Covered by a lock on its group
+		if (i < 0)
+			return false;
+		
+		if (useCounts[i] != 0)
+			return false;
+		
+		removeResource(i);
+		return true;
+	}
+	
+	// The resource this transaction is queued on, null when running
+	private volatile ResourceLock waitingOn = null;
+	private volatile LockMode requestedMode = null;
+	private volatile Object requestedCommutativity = null;
+	
+	// The last thread to have queued on behalf of this transaction
+	private volatile Thread waitingThread = null;
+	
+	public void setWaitingOn(ResourceLock r, LockMode mode) {
+		setWaitingOn(r, mode, null);
+	}
+	
+	// The class is that of the operations to run in COMMUTATIVE mode
+	public void setWaitingOn(ResourceLock r, LockMode mode, Object commutativity) {
+		if (r != null)
+			waitingThread = Thread.currentThread();
+		
+		requestedMode = mode;
+		requestedCommutativity = commutativity;
+		waitingOn = r;
+	}
+	
+	public ResourceLock getWaitingOn() {
+		return waitingOn;
+	}
+	
+	public LockMode getRequestedMode() {
+		return requestedMode;
+	}
+	
+	public Object getRequestedCommutativity() {
+		return requestedCommutativity;
+	}
+	
+	// Set while a deadlock detector keeps the transaction among
+	// the waiting ones, so that it is kept there once
+	private final AtomicBoolean detected = new AtomicBoolean();
+	
+	public AtomicBoolean getDetected() {
+		return detected;
+	}
+	
+	// Orders the queue of the resource, set before the transaction
+	// gets queued and read under the latch of the resource
+	private long grantPriority = 0;
+	
+	public void setGrantPriority(long grantPriority) {
+		this.grantPriority = grantPriority;
+	}
+	
+	public long getGrantPriority() {
+		return grantPriority;
+	}
+	
+	// In System.nanoTime(), set if the admission of the transaction
+	// has been limited
+	private long admittedAt = 0;
+	
+	// In nanoseconds, spent waiting for resources
+	private long waitNanos = 0;
+	
+	public void setAdmittedAt(long admittedAt) {
+		this.admittedAt = admittedAt;
+	}
+	
+	public long getAdmittedAt() {
+		return admittedAt;
+	}
+	
+	public void addWaitNanos(long nanos) {
+		waitNanos += nanos;
+	}
+	
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+	
+	// In System.nanoTime(), of the whole transaction
+	// and of the call currently running in it
+	private boolean hasDeadline = false;
+	private long deadline;
+	private boolean hasCallDeadline = false;
+	private long callDeadline;
+	
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+		hasDeadline = true;
+	}
+	
+	public void setCallDeadline(long callDeadline) {
+		this.callDeadline = callDeadline;
+		hasCallDeadline = true;
+	}
+	
+	public void clearCallDeadline() {
+		hasCallDeadline = false;
+	}
+	
+	public boolean hasWaitDeadline() {
+		return hasDeadline || hasCallDeadline;
 	}
 	
-	public Transaction getNext() {
-		return waitingFor;
+	// The earlier of the two deadlines set
+	public long getWaitDeadline() {
+		if (!hasCallDeadline)
+			return deadline;
+		else if (!hasDeadline || callDeadline - deadline < 0)
+			return callDeadline;
+		else
+			return deadline;
 	}
 	
 }
@@ -0,0 +1,130 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import cp1.base.ActiveTransactionAborted;
+import cp1.base.TransactionManager;
+
+/**
+ * Runs code in transactions of a manager, retrying the transactions
+ * which get aborted.
+ *
+ * A retry is started with restartCurrentTransaction, so it keeps the
+ * age of the first attempt. The transaction gets older with every
+ * attempt, compared to everyone else, and is eventually the oldest,
+ * which no deadlock policy aborts. Between attempts the thread backs
+ * off for a random time up to a bound doubling with every attempt.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+public class TransactionExecutor {
+
+	private final TransactionManager tm;
+
+	private final int maxAttempts;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+
+	private final LongAdder commits = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder givenUp = new LongAdder();
+
+	// Of the committed transactions
+	private final Histogram attempts = new Histogram();
+
+	// 100 attempts, backing off between 100 microseconds and 10 milliseconds
+	public TransactionExecutor(TransactionManager tm) {
+		this(tm, 100, 100, 10_000, TimeUnit.MICROSECONDS);
+	}
+
+	public TransactionExecutor(
+			TransactionManager tm,
+			int maxAttempts,
+			long initialBackoff,
+			long maxBackoff,
+			TimeUnit unit
+	) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("At least one attempt is needed");
+
+		this.tm = tm;
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffNanos = unit.toNanos(initialBackoff);
+		this.maxBackoffNanos = unit.toNanos(maxBackoff);
+	}
+
+	// Runs the body in a transaction of the current thread and commits it,
+	// returning what the body has returned. An attempt aborted, either
+	// in the body or at commit, is retried. Any other exception rolls the
+	// transaction back and is thrown as is, as is ActiveTransactionAborted
+	// once the attempts have run out.
+	public <T> T runInTransaction(Callable<T> body) throws Exception {
+		tm.startTransaction();
+
+		try {
+			for (int attempt = 1; ; ++attempt) {
+				try {
+					T result = body.call();
+					tm.commitCurrentTransaction();
+
+					commits.increment();
+					attempts.record(attempt);
+					return result;
+				}
+				catch (ActiveTransactionAborted e) {
+					if (attempt == maxAttempts) {
+						givenUp.increment();
+						throw e;
+					}
+				}
+
+				tm.restartCurrentTransaction();
+				retries.increment();
+				backOff(attempt);
+			}
+		}
+		finally {
+			tm.rollbackCurrentTransaction();
+		}
+	}
+
+	// The transaction has been restarted, so holds nothing in the meantime
+	private void backOff(int attempt) throws InterruptedException {
+		long bound = initialBackoffNanos << Math.min(attempt - 1, 30);
+
+		if (bound <= 0 || bound > maxBackoffNanos)
+			bound = maxBackoffNanos;
+
+		if (bound > 0)
+			TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+	}
+
+	public long getCommits() {
+		return commits.sum();
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	// Transactions which have run out of attempts
+	public long getGivenUp() {
+		return givenUp.sum();
+	}
+
+	// The number of attempts each committed transaction has taken
+	public Histogram getAttempts() {
+		return attempts;
+	}
+
+}
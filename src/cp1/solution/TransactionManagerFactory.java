@@ -8,11 +8,20 @@
  */
 package cp1.solution;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.ToIntFunction;
 
+import cp1.base.CheckpointSupport;
 import cp1.base.TransactionManager;
 import cp1.base.LocalTimeProvider;
+import cp1.base.OperationCodec;
 import cp1.base.Resource;
+import cp1.base.ResourceId;
 
 /**
  * A factory for instantiating transaction managers.
@@ -40,4 +49,186 @@ public final class TransactionManagerFactory {
 		return new MT(resources, timeProvider);
 	}
 	
+	/**
+	 * Returns a new transaction manager with
+	 * the given options, see MT.builder.
+	 * @param options The options of the manager.
+	 * @return A new transaction manager for
+	 *     controlling the resources.
+	 */
+	public final static MT newTM(
+			MT.Builder options
+	) {
+		return options.build();
+	}
+	
+	/**
+	 * Like newTM, but logs every committed
+	 * transaction to a file before its commit
+	 * returns. The log is first replayed on the
+	 * resources, which have to be in the state
+	 * they were in when it was created. If a
+	 * checkpoint directory is given, checkpoints
+	 * of all the resources can be written there.
+	 * The last one is restored first, and only
+	 * the part of the log committed after it is
+	 * replayed. Every resource, and every copy
+	 * of it made for snapshots, has to implement
+	 * CheckpointSupport then.
+	 * @param options The options of the manager.
+	 * @param logPath The file to keep the log in.
+	 * @param checkpointDirectory Where to keep
+	 *     checkpoints, null not to take any.
+	 * @param codec Writes and reads logged operations.
+	 * @return A new durable transaction manager.
+	 * @throws IOException If the checkpoint or
+	 *     the log cannot be read.
+	 */
+	public final static MT newDurableTM(
+			MT.Builder options,
+			Path logPath,
+			Path checkpointDirectory,
+			OperationCodec codec
+	) throws
+		IOException {
+		
+		Collection<Resource> resources = options.resources;
+		Map<ResourceId, Resource> byId = new HashMap<ResourceId, Resource>();
+		
+		for (Resource r: resources)
+			byId.put(r.getId(), r);
+		
+		Checkpoint checkpoint = null;
+		long checkpointTs = 0;
+		
+		if (checkpointDirectory != null) {
+			for (Resource r: resources) {
+				if (!(r instanceof CheckpointSupport) ||
+						!(r.copyForSnapshot() instanceof CheckpointSupport))
+					throw new IllegalArgumentException(
+							"Resource " + r.getId() + " cannot be checkpointed");
+			}
+			
+			checkpoint = new Checkpoint(checkpointDirectory, codec);
+			checkpointTs = checkpoint.restore(byId);
+		}
+		
+		WriteAheadLog log = WriteAheadLog.open(logPath, codec, byId, checkpointTs);
+		
+		return new MT(
+				options,
+				log,
+				checkpoint,
+				Math.max(checkpointTs, log.getLastCommitTs())
+		);
+	}
+	
+	/**
+	 * Returns a new transaction manager which
+	 * locks nothing until commit and aborts the
+	 * transactions whose reads have gone stale.
+	 * Suits workloads with few conflicts.
+	 * @param resources The collection of resources.
+	 * @return A new optimistic transaction manager.
+	 */
+	public final static TransactionManager newOptimisticTM(
+			Collection<Resource> resources
+	) {
+		return new OptimisticMT(resources);
+	}
+	
+	/**
+	 * Returns a new transaction manager with
+	 * the resources split between independent
+	 * partitions by the hashes of their ids.
+	 * Transactions spanning several partitions
+	 * are committed in two phases.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param partitionCount How many partitions
+	 *     to split the resources between.
+	 * @return A new partitioned transaction manager.
+	 */
+	public final static PartitionedMT newPartitionedTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			int partitionCount
+	) {
+		return newPartitionedTM(
+				resources,
+				timeProvider,
+				partitionCount,
+				rid -> Math.floorMod(rid.hashCode(), partitionCount)
+		);
+	}
+	
+	/**
+	 * Returns a new transaction manager with
+	 * the resources split between independent
+	 * partitions, for example by ranges of ids.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param partitionCount How many partitions
+	 *     to split the resources between.
+	 * @param partitioner Maps the id of a resource
+	 *     to the index of its partition, from 0 to
+	 *     partitionCount - 1.
+	 * @return A new partitioned transaction manager.
+	 */
+	public final static PartitionedMT newPartitionedTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			int partitionCount,
+			ToIntFunction<ResourceId> partitioner
+	) {
+		return new PartitionedMT(resources, timeProvider, partitionCount, partitioner);
+	}
+	
+	/**
+	 * Returns a new transaction manager whose
+	 * calls never block, with operations waiting
+	 * for a resource run later on the executor.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param executor Runs operations once their
+	 *     resources have been acquired.
+	 * @return A new asynchronous transaction manager.
+	 */
+	public final static AsyncMT newAsyncTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			Executor executor
+	) {
+		return new AsyncMT(resources, timeProvider, executor);
+	}
+	
+	/**
+	 * Like newAsyncTM, but logs every committed
+	 * transaction to a file, as newDurableTM does.
+	 * The future a commit returns completes once
+	 * the transaction is on the disk.
+	 * @param resources The collection of resources.
+	 * @param timeProvider A local time provider.
+	 * @param logPath The file to keep the log in.
+	 * @param codec Writes and reads logged operations.
+	 * @param executor Runs operations once their
+	 *     resources have been acquired, and waits
+	 *     for the log.
+	 * @return A new durable asynchronous
+	 *     transaction manager.
+	 * @throws IOException If the log cannot be read.
+	 */
+	public final static AsyncMT newDurableAsyncTM(
+			Collection<Resource> resources,
+			LocalTimeProvider timeProvider,
+			Path logPath,
+			OperationCodec codec,
+			Executor executor
+	) throws
+		IOException {
+		
+		MT mt = newDurableTM(MT.builder(resources, timeProvider), logPath, null, codec);
+		return new AsyncMT(mt, executor);
+	}
+	
 }
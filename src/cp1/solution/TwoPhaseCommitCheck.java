@@ -0,0 +1,155 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.TransactionHandle;
+
+/**
+ * Aborts of a transaction spanning two managers while its branches
+ * prepare. Lives next to GlobalTransaction, which the demos cannot
+ * reach, and drives the branches the way PartitionedMT does.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class TwoPhaseCommitCheck {
+
+	private TwoPhaseCommitCheck() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		abortAfterPrepare();
+		abortBeforePrepare();
+
+		System.out.println("Two-phase commit OK");
+	}
+
+	// An abort coming once every branch has prepared is refused,
+	// and the transaction commits as if it had not come
+	private static void abortAfterPrepare() throws Exception {
+		Counter c0 = new Counter(new CounterId(0));
+		Counter c1 = new Counter(new CounterId(1));
+		MT a = newManager(c0);
+		MT b = newManager(c1);
+
+		GlobalTransaction global = new GlobalTransaction(System.currentTimeMillis(), 1);
+		TransactionHandle first = a.startBranch(global.getStartDate(), global.getSerial(), null);
+		first.operateOnResource(c0.getId(), new Add(1));
+
+		// Joins once the second manager is touched
+		a.joinBranch(first, global);
+		TransactionHandle second = b.startBranch(global.getStartDate(), global.getSerial(), global);
+		second.operateOnResource(c1.getId(), new Add(1));
+
+		expect(first.prepare() && second.prepare(), "A branch has not prepared");
+		expect(!global.abort(), "A prepared transaction has been aborted");
+		expect(!global.isAborted(), "A prepared transaction is marked aborted");
+		expect(global.decideCommit(), "A prepared transaction cannot commit");
+		expect(!global.abort(), "A committing transaction has been aborted");
+
+		first.commit();
+		second.commit();
+
+		expect(c0.value == 1 && c1.value == 1, "The commit has been lost");
+		a.close();
+		b.close();
+	}
+
+	// An abort between the prepares rolls back the branch
+	// which has prepared already, along with the rest
+	private static void abortBeforePrepare() throws Exception {
+		Counter c0 = new Counter(new CounterId(0));
+		Counter c1 = new Counter(new CounterId(1));
+		MT a = newManager(c0);
+		MT b = newManager(c1);
+
+		GlobalTransaction global = new GlobalTransaction(System.currentTimeMillis(), 1);
+		TransactionHandle first = a.startBranch(global.getStartDate(), global.getSerial(), global);
+		TransactionHandle second = b.startBranch(global.getStartDate(), global.getSerial(), global);
+		first.operateOnResource(c0.getId(), new Add(1));
+		second.operateOnResource(c1.getId(), new Add(1));
+
+		expect(first.prepare(), "The first branch has not prepared");
+		expect(global.abort(), "A transaction still preparing has not been aborted");
+		expect(!second.prepare(), "An aborted branch has prepared");
+		expect(!global.decideCommit(), "An aborted transaction can commit");
+
+		first.rollback();
+		second.rollback();
+
+		expect(c0.value == 0 && c1.value == 0, "The rollback has left changes");
+
+		// The locks of the prepared branch are gone too
+		TransactionHandle next = a.startDetachedTransaction();
+		next.operateOnResource(c0.getId(), new Add(1), 50, TimeUnit.MILLISECONDS);
+		next.commit();
+
+		expect(c0.value == 1, "The next transaction has not run");
+		a.close();
+		b.close();
+	}
+
+	private static MT newManager(Resource resource) {
+		return MT.builder(List.of(resource), System::currentTimeMillis).build();
+	}
+
+	private static void expect(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	private static final class CounterId implements ResourceId {
+		private final int value;
+
+		CounterId(int value) {
+			this.value = value;
+		}
+		@Override
+		public int compareTo(ResourceId other) {
+			return Integer.compare(value, ((CounterId)other).value);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CounterId && value == ((CounterId)obj).value;
+		}
+		@Override
+		public int hashCode() {
+			return Integer.hashCode(value);
+		}
+	}
+
+	private static final class Counter extends Resource {
+		private long value = 0;
+
+		Counter(ResourceId id) {
+			super(id);
+		}
+	}
+
+	private static final class Add extends ResourceOperation {
+		private final long delta;
+
+		Add(long delta) {
+			this.delta = delta;
+		}
+		@Override
+		public void execute(Resource r) {
+			((Counter)r).value += delta;
+		}
+		@Override
+		public void undo(Resource r) {
+			((Counter)r).value -= delta;
+		}
+	}
+
+}
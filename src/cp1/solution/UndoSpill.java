@@ -0,0 +1,240 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+
+import cp1.base.OperationCodec;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+
+/**
+ * The older part of the undo log of a transaction, kept off the heap
+ * in a temporary file mapped into memory.
+ *
+ * Every entry is the id of the resource and the operation as written
+ * by the codec, framed with its length on both sides, so that entries
+ * can be read from the oldest one on as well as from the newest one
+ * back. The codec has to keep whatever undo needs.
+ *
+ * The file is created with the first entry, and deleted once closed.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class UndoSpill {
+
+	// Of the part of the file mapped at a time
+	private static final int WINDOW_SIZE = 1 << 20;
+
+	private static final int FRAME_SIZE = Integer.BYTES;
+
+	private final OperationCodec codec;
+	private final Function<ResourceId, ResourceLock> resources;
+
+	private FileChannel channel = null;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	// In bytes
+	private long size = 0;
+
+	// Reused to encode and decode the entries
+	private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(encoded);
+	private byte[] buffer = new byte[64];
+	private final byte[] frame = new byte[FRAME_SIZE];
+
+	// The entry read last going forward, and where the next one starts
+	private int readIndex = -1;
+	private long readNext = 0;
+	private ResourceOperation readOperation = null;
+	private ResourceLock readResource = null;
+
+	// The last entry taken off
+	private ResourceOperation poppedOperation = null;
+	private ResourceLock poppedResource = null;
+
+	UndoSpill(OperationCodec codec, Function<ResourceId, ResourceLock> resources) {
+		this.codec = codec;
+		this.resources = resources;
+	}
+
+	public void push(ResourceOperation operation, ResourceLock resource) {
+		try {
+			if (channel == null) {
+				channel = FileChannel.open(
+						Files.createTempFile("undo", ".log"),
+						StandardOpenOption.READ,
+						StandardOpenOption.WRITE,
+						StandardOpenOption.DELETE_ON_CLOSE
+				);
+			}
+
+			encoded.reset();
+			out.writeInt(0);
+			codec.writeResourceId(resource.getResource().getId(), out);
+			codec.writeOperation(operation, out);
+
+			int length = encoded.size() - FRAME_SIZE;
+			out.writeInt(length);
+
+			byte[] entry = encoded.toByteArray();
+			ByteBuffer.wrap(entry).putInt(0, length);
+
+			write(size, entry, entry.length);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		size += encoded.size();
+	}
+
+	// Takes the newest entry off, read with getPopped*
+	public void pop() {
+		long end = size - FRAME_SIZE;
+		int length = readInt(end);
+		long start = end - length;
+
+		decode(start, length);
+		poppedOperation = readOperation;
+		poppedResource = readResource;
+
+		size = start - FRAME_SIZE;
+
+		// Decoding has overwritten the entry read last
+		readIndex = -1;
+		readNext = 0;
+	}
+
+	public ResourceOperation getPoppedOperation() {
+		return poppedOperation;
+	}
+
+	public ResourceLock getPoppedResource() {
+		return poppedResource;
+	}
+
+	// Reading the entries one after another from the oldest one
+	// takes a single pass, anything else starts over
+	public ResourceOperation getOperation(int i) {
+		seek(i);
+		return readOperation;
+	}
+
+	public ResourceLock getResource(int i) {
+		seek(i);
+		return readResource;
+	}
+
+	private void seek(int i) {
+		if (i < readIndex) {
+			readIndex = -1;
+			readNext = 0;
+		}
+
+		while (readIndex < i) {
+			int length = readInt(readNext);
+
+			decode(readNext + FRAME_SIZE, length);
+			readNext += length + 2 * FRAME_SIZE;
+			++readIndex;
+		}
+	}
+
+	private void decode(long position, int length) {
+		if (buffer.length < length)
+			buffer = new byte[Math.max(length, buffer.length * 2)];
+
+		read(position, buffer, length);
+
+		try {
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(buffer, 0, length)
+			);
+
+			readResource = resources.apply(codec.readResourceId(in));
+			readOperation = codec.readOperation(in);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void close() {
+		window = null;
+
+		if (channel == null)
+			return;
+
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			channel = null;
+		}
+	}
+
+	private int readInt(long position) {
+		read(position, frame, FRAME_SIZE);
+		return ByteBuffer.wrap(frame).getInt();
+	}
+
+	private void write(long position, byte[] bytes, int length) {
+		for (int done = 0; done < length; ) {
+			ByteBuffer w = windowAt(position + done);
+			int n = Math.min(length - done, w.remaining());
+
+			w.put(bytes, done, n);
+			done += n;
+		}
+	}
+
+	private void read(long position, byte[] bytes, int length) {
+		for (int done = 0; done < length; ) {
+			ByteBuffer w = windowAt(position + done);
+			int n = Math.min(length - done, w.remaining());
+
+			w.get(bytes, done, n);
+			done += n;
+		}
+	}
+
+	// The window holding the position, positioned at it
+	private ByteBuffer windowAt(long position) {
+		if (window == null || position < windowStart ||
+				position >= windowStart + WINDOW_SIZE) {
+			windowStart = position - position % WINDOW_SIZE;
+
+			try {
+				window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, WINDOW_SIZE);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		window.position((int)(position - windowStart));
+		return window;
+	}
+
+}
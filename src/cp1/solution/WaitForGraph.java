@@ -0,0 +1,135 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Deadlock detection over the wait-for graph.
+ *
+ * The graph is never stored as a whole: a queued transaction points
+ * at the resource it waits on, and the resource knows whom the waiter
+ * is blocked by - its incompatible holders and the incompatible
+ * transactions queued before it. These are only changed under the
+ * latch of that single resource, so no global lock is needed to update
+ * or walk the graph.
+ *
+ * A transaction walks the graph right after publishing its own edge.
+ * Of two transactions closing a cycle at the same time, at least the
+ * later one sees the edge of the other one, so no cycle is missed.
+ * Both may see it, in which case they pick the same victim.
+ *
+ * The branches of a transaction spanning several managers are a single
+ * vertex, whose edges are those of the branch waiting at the moment.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class WaitForGraph {
+
+	private WaitForGraph() {
+	}
+
+	// Returns the youngest transaction on a cycle going through tr,
+	// or null if tr is not deadlocked. At most maxLength transactions are
+	// visited, cycles not going through tr are left to their members.
+	public static Transaction findVictim(Transaction tr, int maxLength) {
+		Transaction victim = search(tr, maxLength);
+
+		// The edges have been read one by one, confirm there still
+		// is a cycle before aborting anyone.
+		if (victim != null)
+			victim = search(tr, maxLength);
+
+		return victim;
+	}
+
+	// Depth-first search for a path leading back to tr
+	private static Transaction search(Transaction tr, int maxLength) {
+		Deque<Transaction> path = new ArrayDeque<Transaction>();
+		Deque<Iterator<Transaction>> pending = new ArrayDeque<Iterator<Transaction>>();
+		Set<Object> visited = Collections.newSetFromMap(
+				new IdentityHashMap<Object, Boolean>()
+		);
+
+		path.push(tr);
+		pending.push(blockersOf(tr).iterator());
+
+		while (!pending.isEmpty()) {
+			Iterator<Transaction> it = pending.peek();
+
+			if (!it.hasNext()) {
+				pending.pop();
+				path.pop();
+				continue;
+			}
+
+			Transaction nextTr = it.next();
+
+			if (isSame(nextTr, tr))
+				return youngest(path);
+
+			// Aborted transactions are about to leave their queues
+			if (nextTr.isFlgAborted() || !visited.add(vertexOf(nextTr)))
+				continue;
+
+			if (visited.size() > maxLength)
+				return null;
+
+			path.push(nextTr);
+			pending.push(blockersOf(nextTr).iterator());
+		}
+
+		return null;
+	}
+
+	private static boolean isSame(Transaction tr1, Transaction tr2) {
+		return vertexOf(tr1) == vertexOf(tr2);
+	}
+
+	private static Object vertexOf(Transaction tr) {
+		GlobalTransaction global = tr.getGlobal();
+		return global == null ? tr : global;
+	}
+
+	private static List<Transaction> blockersOf(Transaction tr) {
+		GlobalTransaction global = tr.getGlobal();
+
+		if (global != null) {
+			tr = global.getWaitingBranch();
+
+			if (tr == null)
+				return Collections.emptyList();
+		}
+
+		ResourceLock r = tr.getWaitingOn();
+
+		if (r == null)
+			return Collections.emptyList();
+		else
+			return r.blockersOf(tr);
+	}
+
+	private static Transaction youngest(Collection<Transaction> cycle) {
+		Transaction newest = null;
+
+		for (Transaction tr: cycle) {
+			if (newest == null || tr.compareTo(newest) > 0)
+				newest = tr;
+		}
+
+		return newest;
+	}
+
+}
@@ -0,0 +1,437 @@
+/*
+ * University of Warsaw
+ * Concurrent Programming Course 2020/2021
+ * Java Assignment
+ *
+ * Author: Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+package cp1.solution;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import cp1.base.OperationCodec;
+import cp1.base.Resource;
+import cp1.base.ResourceId;
+import cp1.base.ResourceOperation;
+import cp1.base.ResourceOperationException;
+
+/**
+ * The redo log of committed transactions.
+ *
+ * Every record holds the commit timestamp of one transaction and its
+ * operations in the order they have been run, framed with their length
+ * and checksum. Records
+ * are appended in memory in commit order and written out in batches:
+ * the first committer to find no write in progress writes and forces
+ * everything appended so far, the others wait for it (group commit).
+ * After a checkpoint the records it covers are dropped by replacing the
+ * file with a copy of the rest.
+ *
+ * @author Rafal Klimek (rk418291@students.mimuw.edu.pl)
+ */
+final class WriteAheadLog {
+
+	private static final int HEADER_SIZE = 8;
+
+	private final Path path;
+	private final OperationCodec codec;
+
+	// Replaced when records are dropped. Used by the thread which has set
+	// writing only, and when opening.
+	private FileChannel channel;
+
+	// Guards everything below
+	private final Object lock = new Object();
+
+	// Records appended but not written yet
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	// Numbers of records appended, and forced to the disk
+	private long appended = 0;
+	private long durable = 0;
+
+	private boolean writing = false;
+
+	// Once a write has failed, nothing after it can be made durable
+	private IOException failure = null;
+
+	// Of the last record found when opening the log
+	private long lastCommitTs = 0;
+
+	private WriteAheadLog(Path path, FileChannel channel, OperationCodec codec) {
+		this.path = path;
+		this.channel = channel;
+		this.codec = codec;
+	}
+
+	// Opens the log, creating it if there is none, and runs the operations
+	// of every complete record committed after the given timestamp on
+	// the resources. A torn record at the end, left by a crash in the
+	// middle of a write, is cut off.
+	public static WriteAheadLog open(
+			Path path,
+			OperationCodec codec,
+			Map<ResourceId, Resource> resources,
+			long checkpointTs
+	) throws
+		IOException {
+
+		FileChannel channel = FileChannel.open(
+				path,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE
+		);
+
+		try {
+			WriteAheadLog log = new WriteAheadLog(path, channel, codec);
+			long end = log.replay(resources, checkpointTs);
+
+			channel.truncate(end);
+			channel.position(end);
+			return log;
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// Returns where the last complete record ends
+	private long replay(
+			Map<ResourceId, Resource> resources,
+			long checkpointTs
+	) throws
+		IOException {
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long position = 0;
+
+		while (true) {
+			header.clear();
+			if (!readFully(header, position))
+				return position;
+
+			header.flip();
+			int length = header.getInt();
+			int checksum = header.getInt();
+
+			if (length <= 0 || position + HEADER_SIZE + length > channel.size())
+				return position;
+
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + HEADER_SIZE);
+
+			CRC32 crc = new CRC32();
+			crc.update(payload.array());
+
+			if ((int)crc.getValue() != checksum)
+				return position;
+
+			redo(payload.array(), resources, checkpointTs);
+			position += HEADER_SIZE + length;
+		}
+	}
+
+	private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+
+			if (read < 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	private void redo(
+			byte[] record,
+			Map<ResourceId, Resource> resources,
+			long checkpointTs
+	) throws
+		IOException {
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		long commitTs = in.readLong();
+		int count = in.readInt();
+
+		lastCommitTs = commitTs;
+
+		// Already in the checkpoint
+		if (commitTs <= checkpointTs)
+			return;
+
+		for (int i = 0; i < count; ++i) {
+			ResourceId rid = codec.readResourceId(in);
+			ResourceOperation operation = codec.readOperation(in);
+			Resource resource = resources.get(rid);
+
+			if (resource == null)
+				throw new IOException("The log refers to an unknown resource " + rid);
+
+			try {
+				operation.execute(resource);
+			}
+			catch (ResourceOperationException e) {
+				throw new IOException("A logged operation has failed on replay", e);
+			}
+		}
+	}
+
+	public long getLastCommitTs() {
+		return lastCommitTs;
+	}
+
+	// The record of the changes of the transaction, still without
+	// its commit timestamp. null if there is nothing to log.
+	public byte[] encode(Transaction tr) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int count = 0;
+
+		try {
+			out.writeLong(0);
+			out.writeInt(0);
+
+			for (int i = 0; i < tr.getOperationCount(); ++i) {
+				ResourceOperation operation = tr.getOperation(i);
+
+				if (operation.isReadOnly())
+					continue;
+
+				codec.writeResourceId(tr.getOperationResource(i).getResource().getId(), out);
+				codec.writeOperation(operation, out);
+				++count;
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		if (count == 0)
+			return null;
+
+		byte[] record = bytes.toByteArray();
+		ByteBuffer.wrap(record).putInt(Long.BYTES, count);
+		return record;
+	}
+
+	// Returns the number to pass to awaitDurable. Called with increasing
+	// timestamps, while the resources are still held.
+	public long append(byte[] record, long commitTs) {
+		ByteBuffer.wrap(record).putLong(0, commitTs);
+
+		CRC32 crc = new CRC32();
+		crc.update(record);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(record.length);
+		header.putInt((int)crc.getValue());
+
+		synchronized (lock) {
+			pending.write(header.array(), 0, HEADER_SIZE);
+			pending.write(record, 0, record.length);
+			return ++appended;
+		}
+	}
+
+	// Returns once the record with the given number is on the disk
+	public void awaitDurable(long record) {
+		// An interrupt would close the channel in the middle of a write
+		boolean interrupted = Thread.interrupted();
+
+		try {
+			while (true) {
+				byte[] batch;
+				long batchEnd;
+
+				synchronized (lock) {
+					while (writing && durable < record && failure == null) {
+						try {
+							lock.wait();
+						}
+						catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+
+					if (durable >= record)
+						return;
+					if (failure != null)
+						throw new UncheckedIOException(failure);
+
+					// Becomes the leader, writing whatever has gathered
+					writing = true;
+					batch = pending.toByteArray();
+					batchEnd = appended;
+					pending = new ByteArrayOutputStream();
+				}
+
+				IOException error = null;
+
+				try {
+					ByteBuffer buffer = ByteBuffer.wrap(batch);
+
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+
+					channel.force(false);
+				}
+				catch (IOException e) {
+					error = e;
+				}
+
+				synchronized (lock) {
+					writing = false;
+
+					if (error == null)
+						durable = batchEnd;
+					else
+						failure = error;
+
+					lock.notifyAll();
+				}
+			}
+		}
+		finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	// Drops the records committed up to the timestamp of a checkpoint
+	// already on the disk, so that a restart does not read them. Those
+	// committed later are copied into a new file replacing the log,
+	// commits wait for it as they would for a write.
+	public void discardUpTo(long checkpointTs) throws IOException {
+		boolean interrupted = Thread.interrupted();
+
+		try {
+			synchronized (lock) {
+				while (writing) {
+					try {
+						lock.wait();
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+
+				if (failure != null)
+					throw failure;
+
+				writing = true;
+			}
+
+			try {
+				copyAfter(checkpointTs);
+			}
+			finally {
+				synchronized (lock) {
+					writing = false;
+					lock.notifyAll();
+				}
+			}
+		}
+		finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void copyAfter(long checkpointTs) throws IOException {
+		long size = channel.size();
+		long start = firstAfter(checkpointTs, size);
+
+		if (start == 0)
+			return;
+
+		Path next = path.resolveSibling(path.getFileName() + ".next");
+		FileChannel copy = FileChannel.open(
+				next,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE
+		);
+
+		try {
+			for (long position = start; position < size; )
+				position += channel.transferTo(position, size - position, copy);
+
+			copy.force(false);
+			Files.move(next, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException | RuntimeException e) {
+			copy.close();
+			Files.deleteIfExists(next);
+			throw e;
+		}
+
+		// The old file is gone, whatever happens next
+		FileChannel old = channel;
+		channel = copy;
+		old.close();
+
+		forceDirectory(path.toAbsolutePath().getParent());
+	}
+
+	// Where the first record committed after the timestamp starts, or the
+	// size if there is none. The file only holds complete records here.
+	private long firstAfter(long checkpointTs, long size) throws IOException {
+		ByteBuffer start = ByteBuffer.allocate(HEADER_SIZE + Long.BYTES);
+		long position = 0;
+
+		while (position < size) {
+			start.clear();
+			readFully(start, position);
+			start.flip();
+
+			int length = start.getInt();
+			start.getInt();
+
+			if (start.getLong() > checkpointTs)
+				return position;
+
+			position += HEADER_SIZE + length;
+		}
+
+		return size;
+	}
+
+	// Makes the files created or renamed in the directory durable. Some
+	// systems cannot open a directory, their renames are durable by the
+	// time they return.
+	static void forceDirectory(Path directory) throws IOException {
+		FileChannel channel;
+
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		}
+		catch (IOException e) {
+			return;
+		}
+
+		try (channel) {
+			channel.force(true);
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}